@@ -0,0 +1,94 @@
+package engineer.leepsky;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Besides ops/s, every benchmark reports the lexed megabytes (UTF-8) and tokens per second.
+// The GC profiler (on by default through BenchmarkRunner) adds the allocation rate
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"identifiers", "numbers", "strings", "operators", "mixed"})
+    public String input;
+
+    @Param({"false", "true"})
+    public boolean uniteStrings;
+
+    @Param({"1048576"})
+    public int length;
+
+    private String source;
+
+    private double megabytes;
+
+    private int tokens;
+
+    @Setup
+    public void setUp() {
+        source = Sources.generate(input, length);
+        megabytes = source.getBytes(StandardCharsets.UTF_8).length / (1024.0 * 1024.0);
+        tokens = Lexer.lex(source, "<benchmark>", uniteStrings).size();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public double megabytes;
+
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            tokens = 0;
+        }
+    }
+
+    private void count(Counters counters) {
+        counters.megabytes += megabytes;
+        counters.tokens += tokens;
+    }
+
+    @Benchmark
+    public List<Token> lex(Counters counters) {
+        count(counters);
+        return Lexer.lex(source, "<benchmark>", uniteStrings);
+    }
+
+    // Scanning only, no Token objects are made
+    @Benchmark
+    public TokenBuffer lexToBuffer(Counters counters) {
+        count(counters);
+        return Lexer.lexToBuffer(source, "<benchmark>", uniteStrings);
+    }
+
+    @Benchmark
+    public Token stream(Counters counters) {
+        count(counters);
+        TokenStream stream = Lexer.stream(source, "<benchmark>", uniteStrings);
+        Token last = null;
+        while (stream.hasNext()) { last = stream.next(); }
+        return last;
+    }
+}
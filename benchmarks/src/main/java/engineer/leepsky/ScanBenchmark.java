@@ -0,0 +1,50 @@
+package engineer.leepsky;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Scalar and vector scans of the same sources. The lexer picks the vector scans only if the
+// jdk.incubator.vector module is added to the JVM, so both benchmarks run the same code in different forks
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScanBenchmark {
+
+    @Param({"identifiers", "strings", "mixed", "code", "long"})
+    public String input;
+
+    @Param({"1048576"})
+    public int length;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = Sources.generate(input, length);
+    }
+
+    @Benchmark
+    @Fork(1)
+    public TokenBuffer scalar() {
+        return Lexer.lexToBuffer(source, "<benchmark>", false);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public TokenBuffer vector() {
+        return Lexer.lexToBuffer(source, "<benchmark>", false);
+    }
+}
@@ -0,0 +1,62 @@
+package engineer.leepsky;
+
+import java.util.Random;
+
+// Generated inputs for the benchmarks. The same kind and length always give the same source
+final class Sources {
+
+    private Sources() { }
+
+    private static final String[] IDENTIFIERS = {
+            "foo", "bar_baz", "x1", "example1", "someLongerIdentifier", "_tmp", "i", "value42"
+    };
+
+    private static final String[] NUMBERS = {
+            "0", "42", "1_000_000", "3.14", ".5", "2.718_281", "123456789", "0.000_1"
+    };
+
+    private static final String[] STRINGS = {
+            "\"plain\"", "'single'", "\"tab\\tand\\nnewline\"", "\"quote \\\" inside\"", "'it\\'s'", "\"\\\\path\\\\\""
+    };
+
+    private static final String[] OPERATORS = {
+            "{", "}", "(", ")", "[", "]", "::", "->", "==", "&&", "+", "*", ";", ",", ":", "=", "-", "&", ".", "@"
+    };
+
+    // Long names and strings with indented lines, closer to hand-written code
+    private static final String[] CODE = {
+            "        ", "            ", "configurationProperties", "DEFAULT_CONNECTION_TIMEOUT_MILLIS", "resultBuilder",
+            "\"A longer message which is reported when the connection fails\"", "'short text in single quotes'",
+            "(", ")", ";", "=", "."
+    };
+
+    // Runs of a few hundred chars: long literals (e.g. embedded text) and padding
+    private static final String[] LONG = {
+            "\"" + "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".repeat(5) + "\"",
+            "'" + "0123456789abcdef".repeat(16) + "'", " ".repeat(120), "generatedIdentifier_" + "part".repeat(30)
+    };
+
+    static String generate(String kind, int length) {
+        Random random = new Random(42);
+        StringBuilder source = new StringBuilder(length + 64);
+        while (source.length() < length) {
+            String[] pieces = switch (kind) {
+                case "identifiers" -> IDENTIFIERS;
+                case "numbers"     -> NUMBERS;
+                case "strings"     -> STRINGS;
+                case "operators"   -> OPERATORS;
+                case "code"        -> CODE;
+                case "long"        -> LONG;
+                case "mixed"       -> switch (random.nextInt(4)) {
+                    case 0  -> IDENTIFIERS;
+                    case 1  -> NUMBERS;
+                    case 2  -> STRINGS;
+                    default -> OPERATORS;
+                };
+                default -> throw new IllegalArgumentException("Unknown kind of source: " + kind);
+            };
+            source.append(pieces[random.nextInt(pieces.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package engineer.leepsky;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Turns the token spec (src/main/spec/tokens.spec) into GeneratedScanner: straight-line switches which match
+// the operators and the keywords of the spec right in the source, and into TokenKind, the flat kinds of the tokens
+// with a constant for every keyword and operator. It is run by the build before the compilation:
+//     java LexerGenerator.java <spec> <output directory>
+public class LexerGenerator {
+
+    private static final String KEYWORD_KIND = "Token.Keyword.Kind";
+
+    private static final String SPECIAL_KIND = "Token.Special.Kind";
+
+    // Kinds of TokenKind which are not in the spec, keywords and operators go between them
+    private static final List<String> FIRST_KINDS =
+            List.of("IDENTIFIER", "STRING_LITERAL", "INT_LITERAL", "FLOAT_LITERAL", "UNPARSED");
+
+    private static final String OTHER_KEYWORD_KIND = "KEYWORD";
+
+    private final Map<String, String> keywords = new LinkedHashMap<>();
+
+    private final Map<String, String> operators = new LinkedHashMap<>();
+
+    private final StringBuilder out = new StringBuilder();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java LexerGenerator.java <spec> <output directory>");
+            System.exit(2);
+        }
+        LexerGenerator generator = new LexerGenerator();
+        List<String> lines = Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                generator.read(lines.get(i));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(args[0] + ":" + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        write(Path.of(args[1]), "GeneratedScanner", generator.generate());
+        write(Path.of(args[1]), "TokenKind", generator.generateTokenKind());
+    }
+
+    // A file is left untouched if nothing has changed, so it is not compiled again
+    private static void write(Path directory, String className, String source) throws IOException {
+        Path file = directory.resolve(Path.of("engineer", "leepsky", className + ".java"));
+        if (Files.exists(file) && Files.readString(file, StandardCharsets.UTF_8).equals(source)) { return; }
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source, StandardCharsets.UTF_8);
+    }
+
+    private void read(String line) {
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) { return; }
+        String[] parts = line.split("\\s+");
+        if (parts.length != 3) { throw new IllegalArgumentException("Expected `<keyword|operator> <kind> <spelling>`"); }
+        String kind = parts[1];
+        String spelling = parts[2];
+        // Keywords and operators share the constants of TokenKind
+        if (FIRST_KINDS.contains(kind) || kind.equals(OTHER_KEYWORD_KIND) || keywords.containsKey(kind)
+                || operators.containsKey(kind)) {
+            throw new IllegalArgumentException("Duplicate kind: " + kind);
+        }
+        switch (parts[0]) {
+            case "keyword" -> {
+                if (!isName(spelling)) { throw new IllegalArgumentException("Not a name: " + spelling); }
+                add(keywords, kind, spelling);
+            }
+            case "operator" -> {
+                if (!spelling.chars().allMatch(LexerGenerator::isOperatorChar)) {
+                    throw new IllegalArgumentException("Not an operator: " + spelling);
+                }
+                add(operators, kind, spelling);
+            }
+            default -> throw new IllegalArgumentException("Unknown entry: " + parts[0]);
+        }
+    }
+
+    private static void add(Map<String, String> spellings, String kind, String spelling) {
+        if (spellings.containsValue(spelling)) { throw new IllegalArgumentException("Duplicate spelling: " + spelling); }
+        spellings.put(kind, spelling);
+    }
+
+    private static boolean isName(String s) {
+        if (Character.isDigit(s.charAt(0))) { return false; }
+        return s.chars().allMatch(c -> c < 128 && (Character.isLetterOrDigit(c) || c == '_'));
+    }
+
+    // Printable ASCII chars other than letters, digits, quotes and the underscore
+    private static boolean isOperatorChar(int c) {
+        return c > ' ' && c < 127 && !Character.isLetterOrDigit(c) && c != '_' && c != '"' && c != '\'';
+    }
+
+    private String generate() {
+        out.setLength(0);
+        line(0, "// Generated by LexerGenerator from tokens.spec. Do not edit, edit the spec instead");
+        line(0, "package engineer.leepsky;");
+        line(0, "");
+        line(0, "final class GeneratedScanner {");
+        line(0, "");
+        line(1, "private GeneratedScanner() { }");
+        line(0, "");
+        generateSpellings(KEYWORD_KIND, keywords, "NONE");
+        line(0, "");
+        generateSpellings(SPECIAL_KIND, operators, null);
+        line(0, "");
+        generateKinds(KEYWORD_KIND, keywords, "NONE", OTHER_KEYWORD_KIND);
+        line(0, "");
+        generateKinds(SPECIAL_KIND, operators, null, null);
+        line(0, "");
+        generateKeyword();
+        line(0, "}");
+        return out.toString();
+    }
+
+    // A switch over the enum has to cover every kind, so the spec and the enum can not drift apart
+    private void generateSpellings(String enumName, Map<String, String> spellings, String none) {
+        line(1, "static String spelling(" + enumName + " kind) {");
+        line(2, "return switch (kind) {");
+        spellings.forEach((kind, spelling) -> line(3, "case " + kind + " -> " + quote(spelling) + ";"));
+        if (none != null) { line(3, "case " + none + " -> null;"); }
+        line(2, "};");
+        line(1, "}");
+    }
+
+    private String generateTokenKind() {
+        out.setLength(0);
+        line(0, "// Generated by LexerGenerator from tokens.spec. Do not edit, edit the spec instead");
+        line(0, "package engineer.leepsky;");
+        line(0, "");
+        line(0, "// Flat kind of a token: one constant for every type of token, except that every Keyword.Kind and every");
+        line(0, "// Special.Kind has a constant of its own. " + OTHER_KEYWORD_KIND
+                + " is the kind of the keywords which are not in Keyword.Kind");
+        line(0, "// (see KeywordTable)");
+        line(0, "public enum TokenKind {");
+        FIRST_KINDS.forEach(kind -> line(1, kind + "(Token.Type." + kind + "),"));
+        line(0, "");
+        line(1, "// Keywords");
+        keywords.keySet().forEach(kind -> line(1, kind + "(Token.Type.KEYWORD),"));
+        line(1, OTHER_KEYWORD_KIND + "(Token.Type.KEYWORD),");
+        line(0, "");
+        line(1, "// Operators");
+        List<String> kinds = new ArrayList<>(operators.keySet());
+        for (int i = 0; i < kinds.size(); i++) {
+            line(1, kinds.get(i) + "(Token.Type.SPECIAL)" + (i == kinds.size() - 1 ? ";" : ","));
+        }
+        if (kinds.isEmpty()) { line(1, ";"); }
+        line(0, "");
+        line(1, "private final Token.Type type;");
+        line(0, "");
+        line(1, "TokenKind(Token.Type type) { this.type = type; }");
+        line(0, "");
+        line(1, "public Token.Type type() {");
+        line(2, "return type;");
+        line(1, "}");
+        line(0, "}");
+        return out.toString();
+    }
+
+    // TokenKind has a constant of the same name for every kind of the spec
+    private void generateKinds(String enumName, Map<String, String> spellings, String none, String noneKind) {
+        line(1, "static TokenKind kind(" + enumName + " kind) {");
+        line(2, "return switch (kind) {");
+        spellings.keySet().forEach(kind -> line(3, "case " + kind + " -> TokenKind." + kind + ";"));
+        if (none != null) { line(3, "case " + none + " -> TokenKind." + noneKind + ";"); }
+        line(2, "};");
+        line(1, "}");
+    }
+
+    private static class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        String kind;
+    }
+
+    // Keywords are split by length first, then every level of the trie of the keywords of that length is a switch
+    // over the next char. Runs of chars without a choice are compared at once
+    private void generateKeyword() {
+        Map<Integer, Node> tries = new TreeMap<>();
+        keywords.forEach((kind, spelling) -> {
+            Node node = tries.computeIfAbsent(spelling.length(), k -> new Node());
+            for (char c : spelling.toCharArray()) { node = node.children.computeIfAbsent(c, k -> new Node()); }
+            node.kind = kind;
+        });
+        line(1, "// Returns the ordinal of the keyword spelled by the chars between start and end or -1");
+        line(1, "static int keyword(LexerInput input, int start, int end) {");
+        if (!tries.isEmpty()) {
+            line(2, "switch (end - start) {");
+            tries.forEach((length, trie) -> {
+                line(3, "case " + length + " -> {");
+                generateKeywordNode(trie, 0, 4);
+                line(3, "}");
+            });
+            line(2, "}");
+        }
+        line(2, "return -1;");
+        line(1, "}");
+    }
+
+    private void generateKeywordNode(Node node, int depth, int indent) {
+        if (node.kind != null) {
+            line(indent, "return " + KEYWORD_KIND + "." + node.kind + ".ordinal();");
+            return;
+        }
+        if (node.children.size() > 1) {
+            line(indent, "switch (input.charAt(" + index("start", depth) + ")) {");
+            node.children.forEach((c, child) -> {
+                line(indent + 1, "case " + quote(c) + " -> {");
+                generateKeywordNode(child, depth + 1, indent + 2);
+                line(indent + 1, "}");
+            });
+            line(indent, "}");
+            return;
+        }
+        List<String> compares = new ArrayList<>();
+        while (node.kind == null && node.children.size() == 1) {
+            Map.Entry<Character, Node> only = node.children.firstEntry();
+            compares.add("input.charAt(" + index("start", depth + compares.size()) + ") == " + quote(only.getKey()));
+            node = only.getValue();
+        }
+        line(indent, "if (" + String.join(" && ", compares) + ") {");
+        generateKeywordNode(node, depth + compares.size(), indent + 1);
+        line(indent, "}");
+    }
+
+    private static String index(String base, int offset) {
+        return offset == 0 ? base : base + " + " + offset;
+    }
+
+    private static String quote(char c) {
+        return c == '\\' ? "'\\\\'" : "'" + c + "'";
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\\", "\\\\") + '"';
+    }
+
+    private void line(int indent, String line) {
+        if (!line.isEmpty()) { out.append("    ".repeat(indent)).append(line); }
+        out.append('\n');
+    }
+}
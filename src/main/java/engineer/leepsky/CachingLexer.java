@@ -0,0 +1,256 @@
+package engineer.leepsky;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Lexes through a cache of token lists keyed by the SHA-256 of the source together with the path, uniteStrings and
+// the keywords. Lists are kept in memory up to a byte budget, the least recently used ones are evicted first.
+// With a directory the lists are also written there as TokenFiles, so they outlive the JVM. A list found on disk
+// decodes its tokens the first time they are read. If the directory can not be written, the cache keeps the lists
+// only in memory. Hits share the lists with each other and with the miss which lexed them, so the lists are read-only
+// and the tokens must not be changed.
+// The cache can be used by several threads at once
+public final class CachingLexer {
+
+    // The memory taken by a list is estimated: the source (which slices of the tokens keep reachable) and a token
+    // with its text per token
+    private static final int BYTES_PER_TOKEN = 64;
+
+    private static final String SUFFIX = ".tokens";
+
+    // Chars of the source encoded for the digest at a time
+    private static final int CHUNK = 4096;
+
+    public record Stats(long hits, long diskHits, long misses, long evictions, int entries, long bytes) {
+        public double hitRate() {
+            long lookups = hits + diskHits + misses;
+            return lookups == 0 ? 0 : (double) (hits + diskHits) / lookups;
+        }
+    }
+
+    private record Entry(List<Token> tokens, long bytes) { }
+
+    private final KeywordTable keywords;
+
+    private final long maxBytes;
+
+    // Null if there is no disk tier
+    private final Path directory;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long diskHits;
+
+    private long misses;
+
+    private long evictions;
+
+    public CachingLexer(long maxBytes) {
+        this(KeywordTable.DEFAULT, maxBytes, null);
+    }
+
+    public CachingLexer(long maxBytes, Path directory) {
+        this(KeywordTable.DEFAULT, maxBytes, directory);
+    }
+
+    public CachingLexer(KeywordTable keywords, long maxBytes, Path directory) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        this.keywords = keywords;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    // A source with unpaired surrogates has no UTF-8 form to be hashed, so it is lexed without the cache
+    public List<Token> lex(String source, String path, boolean uniteStrings) {
+        MessageDigest digest = digest(path, uniteStrings);
+        if (!update(digest, source)) {
+            return Collections.unmodifiableList(Lexer.lex(source, path, uniteStrings, keywords));
+        }
+        String key = HexFormat.of().formatHex(digest.digest());
+        List<Token> tokens = lookup(key);
+        if (tokens == null) {
+            tokens = Collections.unmodifiableList(Lexer.lex(source, path, uniteStrings, keywords));
+            store(key, tokens, 2L * source.length());
+        }
+        return tokens;
+    }
+
+    // Memory-maps the file, see Lexer.lex(Path, boolean)
+    public List<Token> lex(Path file, boolean uniteStrings) throws IOException {
+        ByteBuffer utf8 = Lexer.map(file);
+        MessageDigest digest = digest(file.toString(), uniteStrings);
+        digest.update(utf8.duplicate());
+        String key = HexFormat.of().formatHex(digest.digest());
+        List<Token> tokens = lookup(key);
+        if (tokens == null) {
+            tokens = Collections.unmodifiableList(Lexer.lex(utf8, file.toString(), uniteStrings, keywords));
+            // Tokens lexed from bytes have their own strings instead of slices of one source
+            store(key, tokens, 2L * utf8.capacity());
+        }
+        return tokens;
+    }
+
+    // The digest of everything in the key but the source, which is added in UTF-8. The disk tier stores the kinds
+    // of the tokens as ordinals, so the format version and the kinds of this build are in the key as well
+    private MessageDigest digest(String path, boolean uniteStrings) {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(TokenFile.VERSION).putLong(TokenFile.KINDS)
+                .array());
+        for (int id = 0; id < keywords.size(); id++) { updatePrefixed(digest, keywords.name(id)); }
+        digest.update((byte) (uniteStrings ? 1 : 0));
+        updatePrefixed(digest, path == null ? "" : path);
+        return digest;
+    }
+
+    // Strings are prefixed with their length, so different lists of them never give the same bytes
+    private static void updatePrefixed(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    // Adds the UTF-8 bytes of the source, but encodes a chunk at a time instead of copying the source.
+    // A surrogate pair split by the end of a chunk is kept for the next one. Returns false if the source has an
+    // unpaired surrogate: getBytes would replace it with '?', so sources which differ would give the same digest
+    private static boolean update(MessageDigest digest, String source) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(CHUNK);
+        // A char takes at most 3 bytes in UTF-8
+        ByteBuffer bytes = ByteBuffer.allocate(3 * CHUNK);
+        int start = 0;
+        boolean end;
+        do {
+            int count = Math.min(chars.remaining(), source.length() - start);
+            source.getChars(start, start + count, chars.array(), chars.position());
+            chars.position(chars.position() + count);
+            start += count;
+            end = start == source.length();
+            if (encoder.encode(chars.flip(), bytes, end).isError()) { return false; }
+            chars.compact();
+            digest.update(bytes.flip());
+            bytes.clear();
+        } while (!end);
+        encoder.flush(bytes);
+        digest.update(bytes.flip());
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns null on a miss. A list found on disk is put into memory
+    private List<Token> lookup(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.tokens();
+            }
+        }
+        List<Token> tokens = directory == null ? null : read(directory.resolve(key + SUFFIX));
+        synchronized (this) {
+            if (tokens == null) { misses++; }
+            else {
+                diskHits++;
+                put(key, tokens, BYTES_PER_TOKEN * (long) tokens.size());
+            }
+        }
+        return tokens;
+    }
+
+    // A file which can not be read (e.g. written by another version or build, or damaged) counts as a miss and is
+    // written again. Opening a file checks the checksum of all of it, so its tokens are not decoded before they are
+    // read, but a damaged one is found here
+    private static List<Token> read(Path file) {
+        if (!Files.exists(file)) { return null; }
+        try {
+            return Collections.unmodifiableList(TokenFile.open(file).decodingList());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void store(String key, List<Token> tokens, long sourceBytes) {
+        synchronized (this) {
+            put(key, tokens, sourceBytes + BYTES_PER_TOKEN * (long) tokens.size());
+        }
+        if (directory != null) { write(directory.resolve(key + SUFFIX), tokens); }
+    }
+
+    // Written to a temporary file first, so other processes never read a half written file. A list which can not be
+    // written stays in memory only, the lexing has succeeded anyway
+    private void write(Path file, List<Token> tokens) {
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "lexer", ".tmp");
+            try {
+                TokenFile.write(tokens, temp);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // The list is written again by the next miss
+        }
+    }
+
+    // A list bigger than the whole budget is not kept in memory
+    private void put(String key, List<Token> tokens, long size) {
+        if (size > maxBytes) { return; }
+        Entry old = entries.put(key, new Entry(tokens, size));
+        if (old != null) { bytes -= old.bytes(); }
+        bytes += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, diskHits, misses, evictions, entries.size(), bytes);
+    }
+
+    // Empties the memory, the files on disk are kept
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingLexer{" +
+                "entries=" + entries.size() +
+                ", bytes=" + bytes +
+                ", maxBytes=" + maxBytes +
+                ", directory=" + directory +
+                '}';
+    }
+}
@@ -0,0 +1,5 @@
+package engineer.leepsky;
+
+// Failure met while lexing in the recovering mode. The location is the one of the Token.Unparsed, i.e. the place
+// where lexing failed. Chars between start and end were skipped, lexing went on at end
+public record Diagnostic(Token.Unparsed.Fail fail, Token.Location loc, int start, int end) { }
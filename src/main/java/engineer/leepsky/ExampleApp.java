@@ -1,7 +1,6 @@
 package engineer.leepsky;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Scanner;
@@ -20,9 +19,7 @@ public class ExampleApp {
                 tokens = Lexer.lex(input, "<stdin>");
             } else {
                 try {
-                    tokens = Lexer.lex(
-                            new String(Files.readAllBytes(Paths.get(input.substring(6)))),
-                            input.substring(6), true);
+                    tokens = Lexer.lex(Paths.get(input.substring(6)), true);
                 }
                 catch (IOException e) {
                     System.out.printf("IO Exception while #load: %s%n", e.getMessage());
@@ -32,15 +29,14 @@ public class ExampleApp {
 
             for (Token token : tokens) {
                 System.out.printf("%d:%02d\t | ", token.getLoc().row(), token.getLoc().col());
-                switch (token.toStringNL().substring(6, 8)) {
-                    case "Id" -> System.out.printf("IDENT\t | `%s`",    ((Token.Identifier)   (token)).getName()    );
-                    case "Ke" -> System.out.printf("KEYWORD\t | `%s`",  ((Token.Keyword)      (token)).getKind()    );
-                    case "Sp" -> System.out.printf("SPECIAL\t | `%s`",  ((Token.Special)      (token)).getKind()    );
-                    case "St" -> System.out.printf("STRING\t | `%s`",   ((Token.StringLiteral)(token)).getContent() );
-                    case "In" -> System.out.printf("INT\t\t | `%s`",    ((Token.IntLiteral)   (token)).getValue()   );
-                    case "Fl" -> System.out.printf("FLOAT\t | `%s`",    ((Token.FloatLiteral) (token)).getValue()   );
-                    case "Un" -> System.out.printf("Unparsed\t | `%s`", ((Token.Unparsed)     (token)).getFail()    );
-                    default -> System.out.println(token);
+                switch (token) {
+                    case Token.Identifier identifier  -> System.out.printf("IDENT\t | `%s`",    identifier.getName()  );
+                    case Token.Keyword keyword        -> System.out.printf("KEYWORD\t | `%s`",  keyword.getKind()     );
+                    case Token.Special special        -> System.out.printf("SPECIAL\t | `%s`",  special.getKind()     );
+                    case Token.StringLiteral literal  -> System.out.printf("STRING\t | `%s`",   literal.getContent()  );
+                    case Token.IntLiteral literal     -> System.out.printf("INT\t\t | `%s`",    literal.getValue()    );
+                    case Token.FloatLiteral literal   -> System.out.printf("FLOAT\t | `%s`",    literal.getValue()    );
+                    case Token.Unparsed unparsed      -> System.out.printf("Unparsed\t | `%s`", unparsed.getFail()    );
                 }
                 System.out.printf("%n");
             }
@@ -0,0 +1,232 @@
+package engineer.leepsky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Set of keywords compiled into a perfect hash. Keywords are hashed into buckets, and every bucket gets a seed
+// which puts all of its keywords into free slots of the table. A lookup is then two hashes, a hash compare and
+// a compare of the chars with the keyword in the slot, whatever the number of keywords is. Keywords with the same
+// hash share a slot and are compared one after another.
+// The id of a keyword is its index in the list the table is made of
+public final class KeywordTable {
+
+    // Keywords of Keyword.Kind, the ids are their ordinals
+    public static final KeywordTable DEFAULT =
+            of(Arrays.stream(Token.Keyword.Kind.KEYWORDS).map(Token.Keyword.Kind::spelling).toList());
+
+    // Keywords of one bucket that still do not fit after that many seeds make the table grow
+    private static final int MAX_SEEDS = 1 << 12;
+
+    private static final int KEYWORDS_PER_BUCKET = 4;
+
+    static final int HASH_SEED = 0x811C9DC5;
+
+    private final String[] names;
+
+    private final Token.Keyword.Kind[] kinds;
+
+    private final int maxLength;
+
+    private final int[] seeds;
+
+    // Keyword id and hash of every slot. The id is -1 for empty slots
+    private final int[] slotIds;
+
+    private final int[] slotHashes;
+
+    // Id of the next keyword with the same hash or -1
+    private final int[] next;
+
+    private KeywordTable(String[] names, Token.Keyword.Kind[] kinds, int maxLength, int[] seeds, int[] slotIds,
+                         int[] slotHashes, int[] next) {
+        this.names = names;
+        this.kinds = kinds;
+        this.maxLength = maxLength;
+        this.seeds = seeds;
+        this.slotIds = slotIds;
+        this.slotHashes = slotHashes;
+        this.next = next;
+    }
+
+    // Keywords must be names the lexer reads as identifiers: letters, digits and underscores, not starting with a digit
+    public static KeywordTable of(List<String> keywords) {
+        if (keywords.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keywords: " + keywords.size());
+        }
+        String[] names = keywords.toArray(new String[0]);
+        Token.Keyword.Kind[] kinds = new Token.Keyword.Kind[names.length];
+        int[] hashes = new int[names.length];
+        int[] next = new int[names.length];
+        // Only the first keyword of every hash is placed into a slot, the others are chained to it
+        Map<Integer, Integer> firstByHash = new HashMap<>();
+        List<Integer> firsts = new ArrayList<>();
+        int maxLength = 0;
+        for (int id = 0; id < names.length; id++) {
+            String name = names[id];
+            if (!isName(name)) { throw new IllegalArgumentException("Not a name: " + name); }
+            hashes[id] = hash(name);
+            next[id] = -1;
+            Integer first = firstByHash.putIfAbsent(hashes[id], id);
+            if (first == null) { firsts.add(id); }
+            else {
+                int last = first;
+                for (int same = first; same >= 0; same = next[same]) {
+                    if (names[same].equals(name)) { throw new IllegalArgumentException("Duplicate keyword: " + name); }
+                    last = same;
+                }
+                next[last] = id;
+            }
+            kinds[id] = Token.Keyword.Kind.of(name);
+            maxLength = Math.max(maxLength, name.length());
+        }
+        int[] placed = firsts.stream().mapToInt(Integer::intValue).toArray();
+
+        int slots = Integer.highestOneBit(Math.max(1, placed.length) * 2 - 1) * 2;
+        while (true) {
+            int buckets = Math.max(1, slots / (2 * KEYWORDS_PER_BUCKET));
+            int[] seeds = new int[buckets];
+            int[] slotIds = new int[slots];
+            int[] slotHashes = new int[slots];
+            if (place(placed, hashes, seeds, slotIds, slotHashes)) {
+                return new KeywordTable(names, kinds, maxLength, seeds, slotIds, slotHashes, next);
+            }
+            slots *= 2;
+        }
+    }
+
+    public static KeywordTable of(String... keywords) {
+        return of(List.of(keywords));
+    }
+
+    // Places the keywords with the ids into the slots. The biggest buckets go first, while there is the most room
+    private static boolean place(int[] ids, int[] hashes, int[] seeds, int[] slotIds, int[] slotHashes) {
+        int bucketMask = seeds.length - 1;
+        int slotMask = slotIds.length - 1;
+        Arrays.fill(slotIds, -1);
+        int[][] buckets = new int[seeds.length][];
+        int[] sizes = new int[seeds.length];
+        for (int id : ids) { sizes[mix(hashes[id], 0) & bucketMask]++; }
+        for (int b = 0; b < buckets.length; b++) { buckets[b] = new int[sizes[b]]; sizes[b] = 0; }
+        for (int id : ids) {
+            int b = mix(hashes[id], 0) & bucketMask;
+            buckets[b][sizes[b]++] = id;
+        }
+        Integer[] order = new Integer[buckets.length];
+        for (int b = 0; b < order.length; b++) { order[b] = b; }
+        Arrays.sort(order, Comparator.comparingInt((Integer b) -> buckets[b].length).reversed());
+
+        int[] taken = new int[KEYWORDS_PER_BUCKET * 4];
+        for (int b : order) {
+            int[] bucket = buckets[b];
+            if (bucket.length == 0) { break; }
+            if (bucket.length > taken.length) { return false; }
+            int seed = 1;
+            while (!fits(bucket, hashes, seed, slotIds, slotMask, taken)) {
+                if (++seed > MAX_SEEDS) { return false; }
+            }
+            seeds[b] = seed;
+            for (int id : bucket) {
+                int slot = mix(hashes[id], seed) & slotMask;
+                slotIds[slot] = id;
+                slotHashes[slot] = hashes[id];
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(int[] bucket, int[] hashes, int seed, int[] slotIds, int slotMask, int[] taken) {
+        for (int i = 0; i < bucket.length; i++) {
+            int slot = mix(hashes[bucket[i]], seed) & slotMask;
+            if (slotIds[slot] >= 0) { return false; }
+            for (int j = 0; j < i; j++) {
+                if (taken[j] == slot) { return false; }
+            }
+            taken[i] = slot;
+        }
+        return true;
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) { return false; }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') { return false; }
+        }
+        return true;
+    }
+
+    // FNV-1a over the chars. The lexer computes it over the name right in the input
+    static int hash(int hash, char c) {
+        return (hash ^ c) * 0x01000193;
+    }
+
+    static int hash(CharSequence name) {
+        int hash = HASH_SEED;
+        for (int i = 0; i < name.length(); i++) { hash = hash(hash, name.charAt(i)); }
+        return hash;
+    }
+
+    private static int mix(int hash, int seed) {
+        int h = hash ^ (seed * 0x9E3779B9);
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int hash) {
+        return mix(hash, seeds[mix(hash, 0) & (seeds.length - 1)]) & (slotIds.length - 1);
+    }
+
+    // Returns the id of the keyword spelled by the chars between start and end or -1. The hash is the one of the chars
+    int find(LexerInput input, int start, int end, int hash) {
+        if (end - start > maxLength) { return -1; }
+        int slot = slot(hash);
+        int id = slotIds[slot];
+        if (id < 0 || slotHashes[slot] != hash) { return -1; }
+        while (!input.regionEquals(start, end, names[id])) {
+            id = next[id];
+            if (id < 0) { return -1; }
+        }
+        return id;
+    }
+
+    // Returns the id of the keyword or -1
+    public int id(CharSequence name) {
+        if (name.length() > maxLength) { return -1; }
+        int hash = hash(name);
+        int slot = slot(hash);
+        int id = slotIds[slot];
+        if (id < 0 || slotHashes[slot] != hash) { return -1; }
+        while (!names[id].contentEquals(name)) {
+            id = next[id];
+            if (id < 0) { return -1; }
+        }
+        return id;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    // Returns Keyword.Kind.NONE if the keyword is not one of Keyword.Kind
+    public Token.Keyword.Kind kind(int id) {
+        return kinds[id];
+    }
+
+    Token.Keyword keyword(int id, LineIndex lines, int offset) {
+        return new Token.Keyword(kinds[id], id, names[id], lines, offset);
+    }
+
+    @Override
+    public String toString() {
+        return "KeywordTable" + Arrays.toString(names);
+    }
+}
@@ -0,0 +1,42 @@
+package engineer.leepsky;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Event;
+
+// Flight Recorder event of a run of a lexer, see LexerMetrics. While Flight Recorder does not record it, the event
+// costs next to nothing, since the JIT does not allocate it
+@Name("engineer.leepsky.Lex")
+@Label("Lex")
+@Category("Lexer")
+@Description("Lexing of a source or of a part of it")
+final class LexEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Chars")
+    long chars;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Unite Strings")
+    boolean uniteStrings;
+
+    @Label("United Literals")
+    @Description("String literals joined into the literal before them")
+    int united;
+
+    void finish(String path, long chars, int tokens, boolean uniteStrings, int united) {
+        if (!shouldCommit()) { return; }
+        this.path = path;
+        this.chars = chars;
+        this.tokens = tokens;
+        this.uniteStrings = uniteStrings;
+        this.united = united;
+        commit();
+    }
+}
@@ -1,138 +1,780 @@
 package engineer.leepsky;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+public final class Lexer {
+
+    // Kind of macros to record tokens easier. The scanned token is kept in the tok* fields below
+    // and becomes a Token object only in makeToken()
+    private boolean make(Token.Type type, int kind) {
+        tokType = type;
+        tokKind = kind;
+        tokEnd = curIndex + 1;
+        return true;
+    }
+
+    private boolean makeSpecial(int kind) {
+        return make(Token.Type.SPECIAL, kind);
+    }
+
+    private boolean makeKeyword(int id) {
+        return make(Token.Type.KEYWORD, id);
+    }
+
+    // Identifiers and string literals get their symbol ids only in makeToken()
+    private boolean makeIdent() {
+        return make(Token.Type.IDENTIFIER, NO_SYMBOL);
+    }
+
+    private boolean makeString(boolean escaped) {
+        tokEscaped = escaped;
+        return make(Token.Type.STRING_LITERAL, NO_SYMBOL);
+    }
+
+    // Values of numbers are accumulated in number while they are read
+    private boolean makeInt() {
+        tokValue = number.longValue();
+        return make(Token.Type.INT_LITERAL, number.overflows() ? 1 : 0);
+    }
 
-public class Lexer {
+    private boolean makeFloat() {
+        tokValue = Double.doubleToRawLongBits(number.doubleValue(input, tokStart, curIndex + 1));
+        return make(Token.Type.FLOAT_LITERAL, 0);
+    }
 
-    // Kind of macros to construct tokens easier
-    private Token makeSpecial(Token.Special.Kind kind) {
-        return new Token.Special(kind, new Token.Location(filePath, col, row));
+    // Unparsed tokens point to the place where lexing failed rather than to the start of the token
+    private boolean makeUnparsed(Token.Unparsed.Fail fail) {
+        tokStart = curIndex;
+        return make(Token.Type.UNPARSED, fail.ordinal());
     }
 
-    private Token makeKeyword(Token.Keyword.Kind kind) {
-        return new Token.Keyword(kind, new Token.Location(filePath, col, row));
+    // String literals which may be united with the next ones are not interned here, but once their run is over
+    private Token makeToken(boolean internStrings) {
+        if (symbols != null && (tokType == Token.Type.IDENTIFIER ||
+                tokType == Token.Type.STRING_LITERAL && internStrings && symbols.internsStrings())) {
+            return makeSymbol();
+        }
+        CharSequence text = switch (tokType) {
+            case IDENTIFIER, INT_LITERAL, FLOAT_LITERAL -> input.slice(tokStart, tokEnd);
+            case STRING_LITERAL -> tokEscaped
+                    ? appendStringContent(clear(content), input, tokStart, tokEnd).toString()
+                    : input.slice(tokStart + 1, tokEnd - 1);
+            default -> null;
+        };
+        return Token.of(tokType, tokKind, text, tokValue, lines, tokStart, keywords);
     }
 
-    private Token makeIdent(String name) {
-        return new Token.Identifier(name, new Token.Location(filePath, col - name.length() + 1, row));
+    // The name or the content is looked up in the symbol table, so no String is made if it was seen before
+    private Token makeSymbol() {
+        int symbol;
+        if (tokType == Token.Type.IDENTIFIER) {
+            symbol = symbols.intern(input, tokStart, tokEnd, hash(input, tokStart, tokEnd));
+        }
+        else if (tokEscaped) { symbol = symbols.intern(appendStringContent(clear(content), input, tokStart, tokEnd)); }
+        else { symbol = symbols.intern(input, tokStart + 1, tokEnd - 1, hash(input, tokStart + 1, tokEnd - 1)); }
+        return Token.of(tokType, symbol, symbols.name(symbol), 0, lines, tokStart, keywords);
     }
 
-    private Token makeString(String content) {
-        return new Token.StringLiteral(content, new Token.Location(filePath, col - content.length() - 1, row));
+    // Literal which replaces the first literal of a united run
+    Token.StringLiteral unitedLiteral(CharSequence content, Token first) {
+        if (!internsStrings()) {
+            return new Token.StringLiteral(content.toString(), NO_SYMBOL, first.lines, first.offset);
+        }
+        int symbol = symbols.intern(content);
+        return new Token.StringLiteral(symbols.name(symbol), symbol, first.lines, first.offset);
     }
 
-    private Token makeInt(String value) {
-        return new Token.IntLiteral(value, new Token.Location(filePath, col - value.length() + 1, row));
+    // Literal which replaces the first literal of a run which was not united with anything, it is interned only now
+    Token.StringLiteral lastLiteral(Token.StringLiteral first) {
+        return internsStrings() ? unitedLiteral(first.getText(), first) : first;
     }
 
-    private Token makeFloat(String value) {
-        return new Token.FloatLiteral(value, new Token.Location(filePath, col - value.length() + 1, row));
+    private boolean internsStrings() {
+        return symbols != null && symbols.internsStrings();
+    }
+
+    private static int hash(LexerInput input, int start, int end) {
+        int hash = KeywordTable.HASH_SEED;
+        for (int i = start; i < end; i++) { hash = KeywordTable.hash(hash, input.charAt(i)); }
+        return hash;
     }
 
     // State
 
-    private final List<Token> tokenList = new ArrayList<>();
+    private final ArrayList<Token> tokenList = new ArrayList<>();
+
+    // Buffers for the contents of escaped and united string literals, kept for the next literals and sources
+    private final StringBuilder content = new StringBuilder();
+
+    private final StringBuilder united = new StringBuilder();
+
+    // A reused lexer does not keep buffers bigger than that after a big source
+    private static final int MAX_KEPT_CAPACITY = 1 << 16;
 
     private int curIndex;
 
+    private boolean finished;
+
+    // Failures are recorded here and lexing goes on if it is not null, see recover()
+    private List<Diagnostic> diagnostics;
+
+    // Last scanned token
+    private Token.Type tokType;
+
+    private int tokKind;
+
+    private int tokStart;
+
+    private int tokEnd;
+
+    private boolean tokEscaped;
+
+    // Value of the last scanned number, see Token.of
+    private long tokValue;
+
+    private final NumericValue number = new NumericValue();
+
+    // Token counts of the current run, null if the metrics are off, see LexerMetrics
+    private int[] counts;
+
+    // Run of a stream, null until the stream reads its first token, see nextToken()
+    private StreamRun stream;
+
+    private static class StreamRun {
+
+        final LexEvent event = new LexEvent();
+
+        int from;
+
+        long started;
+
+        int tokens;
+
+        int united;
+
+        boolean afterLiteral;
+
+        boolean ended;
+    }
+
     private char curChar() {
-        return source.charAt(curIndex);
+        return input.charAt(curIndex);
     }
-    
-    private final String filePath;
 
-    private final String source;
-    
-    private int col;
+    private boolean hasNextChar() {
+        return input.hasCharAt(curIndex + 1);
+    }
+
+    private char nextChar() {
+        return input.charAt(curIndex + 1);
+    }
     
-    private int row;
+    private LexerInput input;
+
+    // Starts of the lines met so far. Rows and columns of the tokens are found there, so the lexer does not count them
+    private LineIndex lines;
+
+    private final KeywordTable keywords;
+
+    // Names of identifiers (and contents of string literals if the table says so) are interned there if it is not null
+    private SymbolTable symbols;
+
+    private static final int NO_SYMBOL = -1;
 
     // Logic itself
 
     public static List<Token> lex(String source, String path, boolean uniteStrings) {
-        Lexer lexer = new Lexer(source, path);
-        lexer.run();
-        if (uniteStrings) lexer.uniteStringLiterals();
+        return lex(new LexerInput.OfString(source), path, uniteStrings);
+    }
+
+    // Lexes with the given keywords instead of the ones of Token.Keyword.Kind
+    public static List<Token> lex(String source, String path, boolean uniteStrings, KeywordTable keywords) {
+        return lex(new LexerInput.OfString(source), path, uniteStrings, keywords);
+    }
+
+    // Reads the source lazily through a bounded buffer. The reader is not closed
+    public static List<Token> lex(Reader reader, String path, boolean uniteStrings) {
+        return lex(new LexerInput.OfReader(reader), path, uniteStrings);
+    }
+
+    public static List<Token> lex(InputStream in, String path, boolean uniteStrings) {
+        return lex(new InputStreamReader(in, StandardCharsets.UTF_8), path, uniteStrings);
+    }
+
+    public static List<Token> lex(ReadableByteChannel channel, String path, boolean uniteStrings) {
+        return lex(Channels.newReader(channel, StandardCharsets.UTF_8), path, uniteStrings);
+    }
+
+    // Lexes UTF-8 bytes between the position and the limit of the buffer without decoding them into a String first
+    public static List<Token> lex(ByteBuffer utf8, String path, boolean uniteStrings) {
+        return lex(new LexerInput.OfUtf8(utf8), path, uniteStrings);
+    }
+
+    // Memory-maps the file and lexes it as UTF-8
+    public static List<Token> lex(Path file, boolean uniteStrings) throws IOException {
+        return lex(map(file), file.toString(), uniteStrings);
+    }
+
+    static List<Token> lex(ByteBuffer utf8, String path, boolean uniteStrings, KeywordTable keywords) {
+        return lex(new LexerInput.OfUtf8(utf8), path, uniteStrings, keywords);
+    }
+
+    private static List<Token> lex(LexerInput input, String path, boolean uniteStrings) {
+        return lex(input, path, uniteStrings, KeywordTable.DEFAULT);
+    }
+
+    private static List<Token> lex(LexerInput input, String path, boolean uniteStrings, KeywordTable keywords) {
+        Lexer lexer = new Lexer(input, path, keywords);
+        lexer.run(uniteStrings);
         return lexer.tokenList;
     }
 
+    // Recovering mode: lexing does not stop at Token.Unparsed. Every failure is added to the diagnostics, the chars
+    // up to the next safe point are skipped and lexing goes on. Token.Unparsed is kept in the list where it was met
+    public static List<Token> lex(String source, String path, boolean uniteStrings, List<Diagnostic> diagnostics) {
+        return lex(new LexerInput.OfString(source), path, uniteStrings, diagnostics);
+    }
+
+    public static List<Token> lex(Path file, boolean uniteStrings, List<Diagnostic> diagnostics) throws IOException {
+        return lex(map(file), file.toString(), uniteStrings, diagnostics);
+    }
+
+    public static List<Token> lex(ByteBuffer utf8, String path, boolean uniteStrings, List<Diagnostic> diagnostics) {
+        return lex(new LexerInput.OfUtf8(utf8), path, uniteStrings, diagnostics);
+    }
+
+    // Interns the names of identifiers (and the contents of string literals if the table does so) into the table,
+    // which can be shared by several sources, see SymbolTable
+    public static List<Token> lex(String source, String path, boolean uniteStrings, SymbolTable symbols) {
+        return lex(new LexerInput.OfString(source), path, uniteStrings, symbols);
+    }
+
+    public static List<Token> lex(Path file, boolean uniteStrings, SymbolTable symbols) throws IOException {
+        return lex(new LexerInput.OfUtf8(map(file)), file.toString(), uniteStrings, symbols);
+    }
+
+    private static List<Token> lex(LexerInput input, String path, boolean uniteStrings, SymbolTable symbols) {
+        Lexer lexer = new Lexer(input, path, KeywordTable.DEFAULT);
+        lexer.symbols = Objects.requireNonNull(symbols);
+        lexer.run(uniteStrings);
+        return lexer.tokenList;
+    }
+
+    private static List<Token> lex(LexerInput input, String path, boolean uniteStrings, List<Diagnostic> diagnostics) {
+        Lexer lexer = new Lexer(input, path, KeywordTable.DEFAULT);
+        lexer.diagnostics = Objects.requireNonNull(diagnostics);
+        lexer.run(uniteStrings);
+        return lexer.tokenList;
+    }
+
+    // Splits the source into chunks at newlines and lexes them on the pool. Newlines are safe to split at,
+    // since no token can contain one. The result is the same as the one of lex()
+    public static List<Token> lexParallel(String source, String path, boolean uniteStrings, ForkJoinPool pool) {
+        if (pool.getParallelism() < 2) return lex(source, path, uniteStrings);
+        int[] bounds = chunkBounds(source, pool.getParallelism() * CHUNKS_PER_THREAD);
+        int chunks = bounds.length - 1;
+        if (chunks < 2) return lex(source, path, uniteStrings);
+
+        // The lines of every chunk are found in parallel and put into one index, which all the chunks share.
+        // The chunk lexers only read it, since every line they meet is already there
+        int[][] chunkLines = new int[chunks][];
+        pool.invoke(new ChunkAction(0, chunks, i -> chunkLines[i] = lineStarts(source, bounds[i], bounds[i + 1])));
+        LineIndex lines = new LineIndex(path);
+        for (int[] starts : chunkLines) {
+            for (int start : starts) { lines.add(start); }
+        }
+
+        Lexer[] lexers = new Lexer[chunks];
+        pool.invoke(new ChunkAction(0, chunks, i -> {
+            lexers[i] = new Lexer(new LexerInput.OfString(source, bounds[i + 1]), lines, KeywordTable.DEFAULT, bounds[i]);
+            lexers[i].run(uniteStrings);
+        }));
+
+        List<Token> tokenList = new ArrayList<>();
+        for (Lexer lexer : lexers) {
+            List<Token> result = lexer.tokenList;
+            if (result.isEmpty()) continue;
+            // Chunks are united on their own, only a literal run crossing a chunk bound is left to join
+            int from = 0;
+            if (uniteStrings && !tokenList.isEmpty()
+                    && tokenList.get(tokenList.size() - 1) instanceof Token.StringLiteral last
+                    && result.get(0) instanceof Token.StringLiteral next) {
+                tokenList.set(tokenList.size() - 1,
+                        new Token.StringLiteral(last.getContent() + next.getContent(), NO_SYMBOL, last.lines, last.offset));
+                from = 1;
+            }
+            tokenList.addAll(from == 0 ? result : result.subList(from, result.size()));
+            if (result.get(result.size() - 1) instanceof Token.Unparsed) break;
+        }
+        return tokenList;
+    }
+
+    public static List<Token> lexParallel(String source, String path, boolean uniteStrings) {
+        return lexParallel(source, path, uniteStrings, ForkJoinPool.commonPool());
+    }
+
+    // Chunks per pool thread, so that threads which are done early can take more work
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final int MIN_CHUNK_LENGTH = 1 << 16;
+
+    // Returns the chunk starts followed by the source length. Every chunk but the last one ends with a newline
+    private static int[] chunkBounds(String source, int chunks) {
+        int chunkLength = Math.max(MIN_CHUNK_LENGTH, source.length() / chunks);
+        List<Integer> bounds = new ArrayList<>();
+        int start = 0;
+        while (start < source.length()) {
+            bounds.add(start);
+            int newline = start + chunkLength < source.length() ? source.indexOf('\n', start + chunkLength) : -1;
+            start = newline < 0 ? source.length() : newline + 1;
+        }
+        bounds.add(source.length());
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Returns the offsets right after the newlines between start and end
+    private static int[] lineStarts(String source, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '\n') count++;
+        }
+        int[] starts = new int[count];
+        count = 0;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '\n') starts[count++] = i + 1;
+        }
+        return starts;
+    }
+
+    // Runs the action for every chunk index in [from, to), splitting the range in halves
+    private static class ChunkAction extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        // Actions are never serialized, they run in the pool of lexParallel() only
+        private final transient IntConsumer action;
+
+        ChunkAction(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkAction(from, middle, action), new ChunkAction(middle, to, action));
+        }
+    }
+
     public static List<Token> lex(String source, String path) {
         return lex(source, path, false);
     }
 
-    private Lexer(String source, String path) {
-        this.source = source;
-        this.filePath = path;
-        col = 0;
-        row = 1;
-    }
-
-    private void uniteStringLiterals() {
-        int i = 1;
-        while (i < tokenList.size()) {
-            if (tokenList.get(i)     instanceof Token.StringLiteral &&
-                tokenList.get(i - 1) instanceof Token.StringLiteral) {
-                tokenList.set(i - 1,
-                        new Token.StringLiteral(
-                                ((Token.StringLiteral)(tokenList.get(i - 1))).getContent() +
-                                        ((Token.StringLiteral)(tokenList.get(i))).getContent(),
-                                tokenList.get(i - 1).getLoc()
-                        ));
-                tokenList.remove(i);
-                i--;
+    // Lexes the source into parallel arrays instead of Token objects. Tokens and their texts are built on demand
+    public static TokenBuffer lexToBuffer(String source, String path, boolean uniteStrings) {
+        return lexToBuffer(source, path, uniteStrings, KeywordTable.DEFAULT);
+    }
+
+    public static TokenBuffer lexToBuffer(String source, String path, boolean uniteStrings, KeywordTable keywords) {
+        LexerInput.OfString input = new LexerInput.OfString(source);
+        LineIndex lines = new LineIndex(path);
+        Lexer lexer = new Lexer(input, lines, keywords, 0);
+        TokenBuffer buffer = new TokenBuffer(input, lines, uniteStrings, keywords);
+        lexer.run(buffer);
+        return buffer;
+    }
+
+    public static TokenBuffer lexToBuffer(String source, String path) {
+        return lexToBuffer(source, path, false);
+    }
+
+    public static TokenStream stream(String source, String path, boolean uniteStrings) {
+        return stream(source, path, uniteStrings, KeywordTable.DEFAULT);
+    }
+
+    public static TokenStream stream(String source, String path, boolean uniteStrings, KeywordTable keywords) {
+        return new TokenStream(new Lexer(new LexerInput.OfString(source), path, keywords), uniteStrings);
+    }
+
+    public static TokenStream stream(String source, String path) {
+        return stream(source, path, false);
+    }
+
+    public static TokenStream stream(Reader reader, String path, boolean uniteStrings) {
+        return new TokenStream(new Lexer(new LexerInput.OfReader(reader), path, KeywordTable.DEFAULT), uniteStrings);
+    }
+
+    public static TokenStream stream(InputStream in, String path, boolean uniteStrings) {
+        return stream(new InputStreamReader(in, StandardCharsets.UTF_8), path, uniteStrings);
+    }
+
+    public static TokenStream stream(ReadableByteChannel channel, String path, boolean uniteStrings) {
+        return stream(Channels.newReader(channel, StandardCharsets.UTF_8), path, uniteStrings);
+    }
+
+    public static TokenStream stream(ByteBuffer utf8, String path, boolean uniteStrings) {
+        return new TokenStream(new Lexer(new LexerInput.OfUtf8(utf8), path, KeywordTable.DEFAULT), uniteStrings);
+    }
+
+    public static TokenStream stream(Path file, boolean uniteStrings) throws IOException {
+        return stream(map(file), file.toString(), uniteStrings);
+    }
+
+    // The mapping stays valid after the channel is closed. A buffer is indexed by int, so a file of more than
+    // Integer.MAX_VALUE bytes can not be mapped
+    static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too big to be mapped (" + size + " bytes, at most "
+                        + Integer.MAX_VALUE + "): " + file);
             }
-            i++;
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
         }
     }
-    
-    private void run() {
-        while (curIndex < source.length()) {
-            Token newToken = parseChar();
-            if (newToken != null) { tokenList.add(newToken); }
-            if (newToken instanceof Token.Unparsed) { break; }
+
+    private Lexer(LexerInput input, String path, KeywordTable keywords) {
+        this(input, new LineIndex(path), keywords, 0);
+    }
+
+    // Starts lexing at the given index. The lines up to it must already be in the index
+    private Lexer(LexerInput input, LineIndex lines, KeywordTable keywords, int start) {
+        this.input = input;
+        this.lines = lines;
+        this.keywords = keywords;
+        this.curIndex = start;
+    }
+
+    // Reusable lexer. Nothing is lexed until setSource() is called
+    public Lexer() {
+        this(KeywordTable.DEFAULT);
+    }
+
+    public Lexer(KeywordTable keywords) {
+        this(new LexerInput.OfString(""), new LineIndex(null), keywords, 0);
+    }
+
+    // The symbol table may be shared with other lexers
+    public Lexer(KeywordTable keywords, SymbolTable symbols) {
+        this(keywords);
+        this.symbols = Objects.requireNonNull(symbols);
+    }
+
+    public Lexer(String source, String path) {
+        this();
+        setSource(source, path);
+    }
+
+    // Lexes another source with the same lexer. The list of tokens and the buffers of the lexer are kept between
+    // the sources, so lexing many small sources allocates nothing but the tokens themselves and the index of their
+    // lines. The list returned by getTokens() is cleared and filled again, copy it to keep the previous tokens.
+    // A lexer must not be used by several threads at once: keep one per thread or take them from a pool
+    public void setSource(String source, String path, boolean uniteStrings) {
+        if (input instanceof LexerInput.OfString string) { string.reset(source); }
+        else { input = new LexerInput.OfString(source); }
+        lines = new LineIndex(path);
+        curIndex = 0;
+        finished = false;
+        boolean big = tokenList.size() > MAX_KEPT_CAPACITY;
+        tokenList.clear();
+        if (big) { tokenList.trimToSize(); }
+        if (content.capacity() > MAX_KEPT_CAPACITY) { clear(content).trimToSize(); }
+        if (united.capacity() > MAX_KEPT_CAPACITY) { clear(united).trimToSize(); }
+        run(uniteStrings);
+    }
+
+    public void setSource(String source, String path) {
+        setSource(source, path, false);
+    }
+
+    // Tokens of the last source. The list is reused by the next setSource()
+    public List<Token> getTokens() {
+        return tokenList;
+    }
+
+    // The metrics and the event are kept out of the loop of scan(), which is the hot one
+    private void run(boolean uniteStrings) {
+        LexEvent event = new LexEvent();
+        event.begin();
+        int from = curIndex;
+        long started = beginRun();
+        int unitedLiterals = scan(uniteStrings);
+        endRun(from, started);
+        event.finish(lines.path(), curIndex - from, tokenList.size(), uniteStrings, unitedLiterals);
+    }
+
+    // Adjacent string literals are joined while lexing: the first literal of a run is added to the list as usual,
+    // the contents of the following ones go to a single buffer, and the first literal is replaced when the run ends.
+    // Only the final content is interned. Returns the number of literals joined into the ones before them
+    private int scan(boolean uniteStrings) {
+        int unitedLiterals = 0;
+        Token.StringLiteral first = null;
+        boolean uniting = false;
+        while (scanToken()) {
+            if (first != null && tokType == Token.Type.STRING_LITERAL) {
+                if (!uniting) { clear(united).append(first.getText()); uniting = true; }
+                appendStringContent(united, input, tokStart, tokEnd);
+                unitedLiterals++;
+                continue;
+            }
+            if (first != null) {
+                endLiteralRun(first, uniting);
+                uniting = false;
+            }
+            Token token = makeToken(!uniteStrings);
+            tokenList.add(token);
+            first = uniteStrings && token instanceof Token.StringLiteral literal ? literal : null;
+        }
+        if (first != null) {
+            endLiteralRun(first, uniting);
+        }
+        return unitedLiterals;
+    }
+
+    // The first literal of the run is the last token in the list
+    private void endLiteralRun(Token.StringLiteral first, boolean uniting) {
+        Token.StringLiteral literal = uniting ? unitedLiteral(united, first) : lastLiteral(first);
+        if (literal != first) { tokenList.set(tokenList.size() - 1, literal); }
+    }
+
+    private static StringBuilder clear(StringBuilder builder) {
+        builder.setLength(0);
+        return builder;
+    }
+
+    private void run(TokenBuffer buffer) {
+        LexEvent event = new LexEvent();
+        event.begin();
+        long started = beginRun();
+        scan(buffer);
+        endRun(0, started);
+        event.finish(lines.path(), curIndex, buffer.size(), buffer.uniteStrings(), 0);
+    }
+
+    private void scan(TokenBuffer buffer) {
+        while (scanToken()) {
+            buffer.add(tokType, tokKind, tokStart, tokEnd, tokEscaped);
+        }
+    }
+
+    // Out of scanToken, which has to stay small enough to be inlined into the loops calling it
+    private void countToken() {
+        LexerMetrics.count(counts, tokType, tokKind);
+    }
+
+    // Starts counting the tokens of a run if the metrics are on. Returns the time the run started at
+    private long beginRun() {
+        counts = LexerMetrics.isEnabled() ? new int[LexerMetrics.COUNTERS] : null;
+        return counts == null ? 0 : System.nanoTime();
+    }
+
+    // Adds the counts of the run, which started at the index from, to the metrics
+    private void endRun(int from, long started) {
+        if (counts == null) { return; }
+        LexerMetrics.record(counts, curIndex - from, System.nanoTime() - started);
+        counts = null;
+    }
+
+    // Lexes the source of the previous buffer with removedLength chars at offset replaced by the inserted text.
+    // Only the tokens around the edit are lexed again: lexing starts at the end of the last token before the edit
+    // and stops at the first token after it which starts where one of the previous tokens started. The rest of
+    // the previous tokens is copied with shifted positions. The previous buffer stays as it was
+    public static TokenBuffer relex(TokenBuffer previous, int offset, int removedLength, String inserted) {
+        String oldSource = previous.source();
+        Objects.checkFromIndexSize(offset, removedLength, oldSource.length());
+        String source = oldSource.substring(0, offset) + inserted + oldSource.substring(offset + removedLength);
+        int delta = inserted.length() - removedLength;
+        int editEnd = offset + inserted.length();
+
+        // A token is not affected if it ends before the edit, since lexing it looked one char past its end at most.
+        // Token.Unparsed is lexed again, as well as a string literal the new tokens may be united with
+        int kept = tokensEndingBefore(previous, offset);
+        if (kept > 0 && previous.type(kept - 1) == Token.Type.UNPARSED) kept--;
+        if (kept > 0 && previous.uniteStrings() && previous.type(kept - 1) == Token.Type.STRING_LITERAL) kept--;
+        int restart = kept == 0 ? 0 : previous.start(kept - 1) + previous.length(kept - 1);
+
+        // The lines before the restart are kept, the lexer adds the ones it meets
+        LexerInput.OfString input = new LexerInput.OfString(source);
+        LineIndex lines = previous.lines().prefix(restart);
+        TokenBuffer buffer = new TokenBuffer(input, lines, previous.uniteStrings(), previous.keywords());
+        buffer.copy(previous, 0, kept, 0);
+        Lexer lexer = new Lexer(input, lines, previous.keywords(), restart);
+        LexEvent event = new LexEvent();
+        event.begin();
+        long started = lexer.beginRun();
+        int next = kept;
+        while (lexer.scanToken()) {
+            if (lexer.tokStart >= editEnd && lexer.tokType != Token.Type.UNPARSED) {
+                int oldStart = lexer.tokStart - delta;
+                while (next < previous.size() && previous.start(next) < oldStart) next++;
+                // Both lexers are at the start of a token with the same chars ahead, so the rest is the same
+                if (next < previous.size() && previous.start(next) == oldStart &&
+                        previous.type(next) != Token.Type.UNPARSED &&
+                        !(previous.uniteStrings() && lexer.tokType == Token.Type.STRING_LITERAL &&
+                                buffer.endsWith(Token.Type.STRING_LITERAL))) {
+                    buffer.copy(previous, next, previous.size(), delta);
+                    lines.addAll(previous.lines(), oldStart, delta);
+                    lexer.endRun(restart, started);
+                    event.finish(lines.path(), lexer.curIndex - restart, buffer.size(), previous.uniteStrings(), 0);
+                    return buffer;
+                }
+            }
+            buffer.add(lexer.tokType, lexer.tokKind, lexer.tokStart, lexer.tokEnd, lexer.tokEscaped);
+        }
+        lexer.endRun(restart, started);
+        event.finish(lines.path(), lexer.curIndex - restart, buffer.size(), previous.uniteStrings(), 0);
+        return buffer;
+    }
+
+    private static int tokensEndingBefore(TokenBuffer buffer, int offset) {
+        int low = 0;
+        int high = buffer.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.start(middle) + buffer.length(middle) < offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // Returns null when the source is over or when the previous token was Token.Unparsed.
+    // A stream is a single run from its first token to its end, it is recorded only if it is read to the end
+    Token nextToken(boolean uniteStrings) {
+        if (stream == null) {
+            stream = new StreamRun();
+            stream.event.begin();
+            stream.from = curIndex;
+            stream.started = beginRun();
+        }
+        if (scanToken()) {
+            // TokenStream unites the literals, here they are only counted
+            boolean literal = tokType == Token.Type.STRING_LITERAL;
+            if (uniteStrings && literal && stream.afterLiteral) { stream.united++; }
+            else { stream.tokens++; }
+            stream.afterLiteral = literal;
+            return makeToken(!uniteStrings);
+        }
+        if (!stream.ended) {
+            stream.ended = true;
+            endRun(stream.from, stream.started);
+            stream.event.finish(lines.path(), curIndex - stream.from, stream.tokens, uniteStrings, stream.united);
+        }
+        return null;
+    }
+
+    // Scans the source until the next token is found
+    private boolean scanToken() {
+        while (!finished && input.hasCharAt(curIndex)) {
+            input.release(curIndex);
+            int start = curIndex;
+            tokStart = curIndex;
+            tokEscaped = false;
+            boolean found = parseChar();
+            if (found && tokType == Token.Type.UNPARSED) {
+                if (diagnostics == null) { finished = true; }
+                else { recover(start); }
+            }
             curIndex++;
+            if (found) {
+                if (counts != null) { countToken(); }
+                return true;
+            }
+        }
+        finished = true;
+        return false;
+    }
+
+    // Records the failure of the token which started at start, and leaves curIndex right before the next safe point:
+    // after the rest of a broken number, after a string literal with a bad escape (or at the end of its line),
+    // at the newline which a string literal is not closed before, or at the next char which can start a token
+    private void recover(int start) {
+        int resume = switch (Token.FAILS[tokKind]) {
+            case UNCLOSED_STRING_LITERAL ->
+                    input.hasCharAt(curIndex) && curChar() == '\n' ? curIndex : curIndex + 1;
+            case INVALID_STRING_ESCAPE -> skipStringLiteral(input.charAt(start), curIndex);
+            case INVALID_FLOAT -> {
+                int i = curIndex;
+                while (input.hasCharAt(i) && isNumberPart(input.charAt(i))) i++;
+                yield i;
+            }
+            case UNKNOWN_SEQUENCE_OF_CHARACTERS -> {
+                int i = start + 1;
+                while (input.hasCharAt(i) && !canStartToken(input.charAt(i))) i++;
+                yield i;
+            }
+        };
+        diagnostics.add(new Diagnostic(Token.FAILS[tokKind], lines.location(tokStart), start, resume));
+        curIndex = resume - 1;
+    }
+
+    // Returns the index after the closing quote, or the index of the newline or of the end if there is no quote
+    private int skipStringLiteral(char enclosingChar, int i) {
+        while (input.hasCharAt(i) && input.charAt(i) != '\n' && input.charAt(i) != enclosingChar) {
+            if (input.charAt(i) == Char.BACKSLASH && input.hasCharAt(i + 1) && input.charAt(i + 1) != '\n') i++;
+            i++;
         }
+        return input.hasCharAt(i) && input.charAt(i) == enclosingChar ? i + 1 : i;
+    }
+
+    // Returns the content of a string literal between start and end (quotes included). If the literal is united
+    // with the following ones, the range holds all of them with only spaces and newlines in between
+    static CharSequence stringContent(LexerInput input, int start, int end, boolean escaped, boolean united) {
+        if (!escaped && !united) { return input.slice(start + 1, end - 1); }
+        return appendStringContent(new StringBuilder(end - start), input, start, end).toString();
+    }
+
+    // Appends the content of the string literals between start and end with the escapes replaced
+    static StringBuilder appendStringContent(StringBuilder content, LexerInput input, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char enclosingChar = input.charAt(i++);
+            if (enclosingChar != Char.DBL_QUOTE && enclosingChar != Char.QUOTE) { continue; }
+            while (input.charAt(i) != enclosingChar) {
+                if (input.charAt(i) == Char.BACKSLASH) { content.append((char) escape(input.charAt(++i))); }
+                else { content.append(input.charAt(i)); }
+                i++;
+            }
+            i++;
+        }
+        return content;
     }
 
     // Parsed characters
 
     private static class Char {
         private Char() { }
-        private static final char AT        = '@';
-        private static final char COLON     = ':';
-        private static final char EQUALS    = '=';
-        private static final char ASTERISK  = '*';
-        private static final char SPACE     = ' ';
-        private static final char DASH      = '-';
-        private static final char BIGGER    = '>';
-        private static final char SLASH         = '/';
-        private static final char CURLY_OPEN    = '{';
-        private static final char CURLY_CLOSE   = '}';
-        private static final char PAREN_OPEN    = '(';
-        private static final char PAREN_CLOSE   = ')';
-        private static final char PLUS          = '+';
-        private static final char PERCENT       = '%';
-        private static final char BANG          = '!';
-        private static final char BAR           = '|';
-        private static final char COMMA         = ',';
-        private static final char SEMICOLON     = ';';
+        private static final char SPACE         = ' ';
         private static final char DBL_QUOTE     = '"';
         private static final char DOT           = '.';
-        private static final char HASHTAG       = '#';
         private static final char ZERO          = '0';
-        private static final char ONE           = '1';
-        private static final char TWO           = '2';
-        private static final char THREE         = '3';
-        private static final char FOUR          = '4';
-        private static final char FIVE          = '5';
-        private static final char SIX           = '6';
-        private static final char SEVEN         = '7';
-        private static final char EIGHT         = '8';
         private static final char NINE          = '9';
-        private static final char SQUARE_OPEN   = '[';
-        private static final char SQUARE_CLOSE  = ']';
         private static final char BACKSLASH     = '\\';
         private static final char CHAR_R        = 'r';
         private static final char CHAR_N        = 'n';
@@ -140,204 +782,185 @@ public class Lexer {
         private static final char CHAR_B        = 'b';
         private static final char CHAR_F        = 'f';
         private static final char QUOTE         = '\'';
-        private static final char LESSER        = '<';
-        private static final char AMPERSAND     = '&';
         private static final char UNDERSCORE    = '_';
     }
 
-    private static class Unreachable extends RuntimeException {
-        public Unreachable(String msg) { super(msg); }
-    }
-
-    private Token parseOneCharToken() throws Unreachable {
-        return switch (curChar()) {
-            case Char.SLASH          -> makeSpecial(Token.Special.Kind.SLASH        );
-            case Char.CURLY_OPEN     -> makeSpecial(Token.Special.Kind.CURLY_OPEN   );
-            case Char.CURLY_CLOSE    -> makeSpecial(Token.Special.Kind.CURLY_CLOSE  );
-            case Char.PAREN_OPEN     -> makeSpecial(Token.Special.Kind.PAREN_OPEN   );
-            case Char.PAREN_CLOSE    -> makeSpecial(Token.Special.Kind.PAREN_CLOSE  );
-            case Char.ASTERISK       -> makeSpecial(Token.Special.Kind.ASTERISK     );
-            case Char.PLUS           -> makeSpecial(Token.Special.Kind.PLUS         );
-            case Char.PERCENT        -> makeSpecial(Token.Special.Kind.PERCENT      );
-            case Char.BANG           -> makeSpecial(Token.Special.Kind.BANG         );
-            case Char.BAR            -> makeSpecial(Token.Special.Kind.BAR          );
-            case Char.COMMA          -> makeSpecial(Token.Special.Kind.COMMA        );
-            case Char.SEMICOLON      -> makeSpecial(Token.Special.Kind.SEMICOLON    );
-            case Char.HASHTAG        -> makeSpecial(Token.Special.Kind.HASHTAG      );
-            case Char.SQUARE_OPEN    -> makeSpecial(Token.Special.Kind.SQUARE_OPEN  );
-            case Char.SQUARE_CLOSE   -> makeSpecial(Token.Special.Kind.SQUARE_CLOSE );
-            case Char.LESSER         -> makeSpecial(Token.Special.Kind.LESSER       );
-            case Char.BIGGER         -> makeSpecial(Token.Special.Kind.BIGGER       );
-            case Char.AT             -> makeSpecial(Token.Special.Kind.AT           );
-            case Char.SPACE          -> null;
-            default                  -> throw new Unreachable("This code must be unreachable. Seems like switch statement at Lexer.java:131 is not exhaustive.");
-        };
+    // Classes of ASCII chars. Every char is dispatched by a single lookup in CHAR_CLASSES,
+    // chars out of ASCII are classified with Character methods
+    private static final byte CLASS_UNKNOWN  = 0;
+    private static final byte CLASS_NEWLINE  = 1;
+    private static final byte CLASS_SPACE    = 2;
+    private static final byte CLASS_OPERATOR = 3;
+    private static final byte CLASS_DOT      = 4;
+    private static final byte CLASS_QUOTE    = 5;
+    private static final byte CLASS_DIGIT    = 6;
+    private static final byte CLASS_LETTER   = 7;
+
+    private static final byte[] CHAR_CLASSES = new byte[128];
+
+    private static final OperatorDfa OPERATORS = OperatorDfa.DEFAULT;
+
+    static {
+        CHAR_CLASSES['\n'] = CLASS_NEWLINE;
+        CHAR_CLASSES[Char.SPACE] = CLASS_SPACE;
+        for (Token.Special.Kind kind : Token.Special.Kind.values()) {
+            CHAR_CLASSES[kind.spelling().charAt(0)] = CLASS_OPERATOR;
+        }
+        // A dot followed by a digit starts a number
+        CHAR_CLASSES[Char.DOT] = CLASS_DOT;
+        CHAR_CLASSES[Char.DBL_QUOTE] = CLASS_QUOTE;
+        CHAR_CLASSES[Char.QUOTE] = CLASS_QUOTE;
+        for (char c = Char.ZERO; c <= Char.NINE; c++) { CHAR_CLASSES[c] = CLASS_DIGIT; }
+        for (char c = 'a'; c <= 'z'; c++) { CHAR_CLASSES[c] = CLASS_LETTER; }
+        for (char c = 'A'; c <= 'Z'; c++) { CHAR_CLASSES[c] = CLASS_LETTER; }
+        CHAR_CLASSES[Char.UNDERSCORE] = CLASS_LETTER;
     }
 
-    private Token parseNumericToken() {
-        StringBuilder number = new StringBuilder();
-        boolean hasDot = false;
-        while (curIndex != source.length() &&
-                (Character.isDigit(curChar()) || curChar() == Char.DOT || curChar() == Char.UNDERSCORE)) {
-            if (curChar() == Char.DOT && hasDot)
-                return new Token.Unparsed(Token.Unparsed.Fail.INVALID_FLOAT, new Token.Location(filePath, col, row));
-            if (curChar() == Char.DOT)
-                hasDot = true;
-            number.append(curChar());
-            curIndex++; col++;
-        }
-        col--; curIndex--;
-        if (hasDot) return makeFloat(number.toString());
-        return makeInt(number.toString());
-    }
-
-    private Token parseStringLiteral(char enclosingChar) {
-        StringBuilder content = new StringBuilder();
-        curIndex++; col++;
-        while (curChar() != enclosingChar) {
-            if (curChar() == '\n' || curIndex == source.length() - 1) {
-                return new Token.Unparsed(Token.Unparsed.Fail.UNCLOSED_STRING_LITERAL,
-                        new Token.Location(filePath, col, row));
-            }
-            if (curChar() != Char.BACKSLASH) {
-                content.append(curChar());
-                curIndex++;
-                col++;
-            } else if (curIndex != source.length() - 1) {
-                curIndex++; col++;
-                switch (curChar()) {
-                    case Char.CHAR_R     -> content.append('\r');
-                    case Char.CHAR_B     -> content.append('\b');
-                    case Char.CHAR_F     -> content.append('\f');
-                    case Char.CHAR_N     -> content.append('\n');
-                    case Char.CHAR_T     -> content.append('\t');
-                    case Char.QUOTE      -> content.append('\'');
-                    case Char.BACKSLASH  -> content.append('\\');
-                    case Char.DBL_QUOTE  -> content.append('"');
-                    default         -> { return new Token.Unparsed(Token.Unparsed.Fail.INVALID_STRING_ESCAPE,
-                            new Token.Location(filePath, col, row)); }
-                }
-                curIndex++; col++;
-            } else return new Token.Unparsed(Token.Unparsed.Fail.INVALID_STRING_ESCAPE,
-                    new Token.Location(filePath, col, row));
-        }
-        return makeString(content.toString());
+    private static boolean isDigit(char c) {
+        return c < 128 ? CHAR_CLASSES[c] == CLASS_DIGIT : Character.isDigit(c);
     }
 
-    private String getIdentOrKeywordName() {
-        StringBuilder name = new StringBuilder();
-        while (curIndex != source.length() &&
-                (Character.isLetterOrDigit(curChar()) || curChar() == '_')) {
-            name.append(curChar());
-            curIndex++; col++;
-        }
-        curIndex--; col--;
-        return name.toString();
+    private static boolean isNumberPart(char c) {
+        return c < 128 ? CHAR_CLASSES[c] == CLASS_DIGIT || c == Char.DOT || c == Char.UNDERSCORE : Character.isDigit(c);
     }
 
-    private Token parseOtherToken() {
-        switch (curChar()) {
+    private static boolean canStartToken(char c) {
+        return c < 128 ? CHAR_CLASSES[c] != CLASS_UNKNOWN : Character.isLetterOrDigit(c);
+    }
 
-            case Char.DOT -> {
-                if (curIndex != source.length() - 1 && Character.isDigit(source.charAt(curIndex + 1))) {
-                    return parseNumericToken();
-                } else
-                    return makeSpecial(Token.Special.Kind.DOT);
-            }
+    private static boolean isIdentPart(char c) {
+        return c < 128 ? CHAR_CLASSES[c] >= CLASS_DIGIT : Character.isLetterOrDigit(c);
+    }
 
-            case Char.COLON -> {
-                if (curIndex != source.length() - 1 && source.charAt(curIndex + 1) == Char.COLON) {
-                    curIndex++;
-                    col++;
-                    return makeSpecial(Token.Special.Kind.DBL_COLON);
-                } else
-                    return makeSpecial(Token.Special.Kind.COLON);
-            }
+    static boolean isAsciiIdentPart(char c) {
+        return c < 128 && CHAR_CLASSES[c] >= CLASS_DIGIT;
+    }
 
-            case Char.EQUALS -> {
-                if (curIndex != source.length() - 1 && source.charAt(curIndex + 1) == Char.EQUALS) {
-                    curIndex++; col++;
-                    return makeSpecial(Token.Special.Kind.DBL_EQUALS);
+    private boolean parseNumericToken() {
+        boolean hasDot = false;
+        // The value is kept in locals while it has up to 18 digits, longer numbers go on in number
+        long mantissa = 0;
+        int exponent = 0;
+        boolean big = false;
+        while (input.hasCharAt(curIndex) && isNumberPart(curChar())) {
+            char c = curChar();
+            if (c == Char.DOT && hasDot)
+                return makeUnparsed(Token.Unparsed.Fail.INVALID_FLOAT);
+            if (c == Char.DOT)
+                hasDot = true;
+            else if (c != Char.UNDERSCORE) {
+                int digit = c < 128 ? c - Char.ZERO : Character.digit(c, 10);
+                if (mantissa < NumericValue.LONG_LIMIT) {
+                    mantissa = mantissa * 10 + digit;
+                    if (hasDot) exponent--;
+                } else {
+                    if (!big) { number.set(mantissa, exponent); big = true; }
+                    number.digit(digit, hasDot);
                 }
-                else
-                    return makeSpecial(Token.Special.Kind.EQUALS);
             }
+            curIndex++;
+        }
+        if (!big) number.set(mantissa, exponent);
+        curIndex--;
+        if (hasDot) return makeFloat();
+        return makeInt();
+    }
 
-            case Char.DASH -> {
-                if (curIndex != source.length() - 1 && source.charAt(curIndex + 1) == Char.BIGGER) {
-                    curIndex++; col++;
-                    return makeSpecial(Token.Special.Kind.ARROW);
-                }
-                else
-                    return makeSpecial(Token.Special.Kind.DASH);
-            }
+    // Returns the char which the escape sequence stands for or -1 if there is no such escape sequence
+    static int escape(char c) {
+        return switch (c) {
+            case Char.CHAR_R     -> '\r';
+            case Char.CHAR_B     -> '\b';
+            case Char.CHAR_F     -> '\f';
+            case Char.CHAR_N     -> '\n';
+            case Char.CHAR_T     -> '\t';
+            case Char.QUOTE      -> '\'';
+            case Char.BACKSLASH  -> '\\';
+            case Char.DBL_QUOTE  -> '"';
+            default              -> -1;
+        };
+    }
 
-            case Char.AMPERSAND -> {
-                if (curIndex != source.length() - 1 && source.charAt(curIndex + 1) == Char.AMPERSAND) {
-                    curIndex++; col++;
-                    return makeSpecial(Token.Special.Kind.DBL_AMPERSAND);
-                }
-                else
-                    return makeSpecial(Token.Special.Kind.AMPERSAND);
+    private boolean parseStringLiteral(char enclosingChar) {
+        boolean escaped = false;
+        curIndex++;
+        while (true) {
+            // Plain chars are skipped in runs, the loop looks only at the char which stopped the run
+            curIndex = input.skipStringChars(curIndex, enclosingChar);
+            if (input.hasCharAt(curIndex) && curChar() == enclosingChar) { break; }
+            if (!hasNextChar() || curChar() == '\n') {
+                return makeUnparsed(Token.Unparsed.Fail.UNCLOSED_STRING_LITERAL);
+            }
+            if (curChar() != Char.BACKSLASH) {
+                curIndex++;
+            } else {
+                curIndex++;
+                if (escape(curChar()) < 0) { return makeUnparsed(Token.Unparsed.Fail.INVALID_STRING_ESCAPE); }
+                escaped = true;
+                curIndex++;
             }
+        }
+        return makeString(escaped);
+    }
 
-            default -> throw new Unreachable("This code must be unreachable. Seems like switch statement at Lexer.java:218 is not exhaustive.");
+    // Leaves curIndex at the last char of the name or right before the token if there is no name
+    private void skipIdentOrKeywordName() {
+        // ASCII chars are skipped in runs, other letters and digits one by one
+        curIndex = input.skipAsciiIdentChars(curIndex);
+        while (input.hasCharAt(curIndex) && isIdentPart(curChar())) {
+            curIndex = input.skipAsciiIdentChars(curIndex + 1);
         }
+        curIndex--;
     }
 
-    private Token tryParseIdentOrKeyword(String name) {
+    // Follows the operator DFA from the current char and takes the longest operator on the way
+    private boolean parseOperator() {
+        int state = OperatorDfa.START;
+        int kind = -1;
+        int end = curIndex;
+        for (int i = curIndex; input.hasCharAt(i); i++) {
+            state = OPERATORS.next(state, input.charAt(i));
+            if (state == OperatorDfa.DEAD) { break; }
+            if (OPERATORS.accept(state) >= 0) {
+                kind = OPERATORS.accept(state);
+                end = i;
+            }
+        }
+        // Only a prefix of some operator
+        if (kind < 0) { return makeUnparsed(Token.Unparsed.Fail.UNKNOWN_SEQUENCE_OF_CHARACTERS); }
+        curIndex = end;
+        return makeSpecial(kind);
+    }
+
+    private boolean tryParseIdentOrKeyword() {
         // If the name is empty (it is not alphanumeric string slice), then it is an unknown character or
         // sequence of characters
-        if (name.isEmpty()) {
-            return new Token.Unparsed(Token.Unparsed.Fail.UNKNOWN_SEQUENCE_OF_CHARACTERS,
-                    new Token.Location(filePath, col, row));
+        if (curIndex < tokStart) {
+            curIndex = tokStart;
+            return makeUnparsed(Token.Unparsed.Fail.UNKNOWN_SEQUENCE_OF_CHARACTERS);
         }
         // Trying to get a keyword with that name
-        else if (Token.Keyword.getKeywordKindByName(name) != Token.Keyword.Kind.NONE) {
-            return makeKeyword(
-                    Token.Keyword.getKeywordKindByName(name));
+        int keyword = keywords == KeywordTable.DEFAULT
+                ? GeneratedScanner.keyword(input, tokStart, curIndex + 1)
+                : keywords.find(input, tokStart, curIndex + 1, hash(input, tokStart, curIndex + 1));
+        if (keyword >= 0) {
+            return makeKeyword(keyword);
         }
         // If none of the above fits, it is an identifier
-        else { return makeIdent(name); }
-    }
-
-    private Token parseChar() {
-        if (curChar() == '\n') { col = 0; row++; return null; }
-        else col++;
-        return switch (curChar()) {
-            case Char.SLASH,
-                    Char.CURLY_OPEN,
-                    Char.CURLY_CLOSE,
-                    Char.PAREN_OPEN,
-                    Char.PAREN_CLOSE,
-                    Char.ASTERISK,
-                    Char.PLUS,
-                    Char.PERCENT,
-                    Char.BANG,
-                    Char.BAR,
-                    Char.COMMA,
-                    Char.SEMICOLON,
-                    Char.HASHTAG,
-                    Char.SQUARE_OPEN,
-                    Char.SQUARE_CLOSE,
-                    Char.SPACE,
-                    Char.LESSER,
-                    Char.AT,
-                    Char.BIGGER -> parseOneCharToken();
-            case Char.ZERO,
-                    Char.ONE,
-                    Char.TWO,
-                    Char.THREE,
-                    Char.FOUR,
-                    Char.FIVE,
-                    Char.SIX,
-                    Char.SEVEN,
-                    Char.EIGHT,
-                    Char.NINE -> parseNumericToken();
-            case Char.DBL_QUOTE -> parseStringLiteral(Char.DBL_QUOTE);
-            case Char.QUOTE     -> parseStringLiteral(Char.QUOTE);
-            case Char.COLON, Char.EQUALS, Char.DASH, Char.AMPERSAND, Char.DOT -> parseOtherToken();
-            default -> tryParseIdentOrKeyword(getIdentOrKeywordName());
+        else { return makeIdent(); }
+    }
+
+    private boolean parseChar() {
+        char c = curChar();
+        byte charClass = c < 128 ? CHAR_CLASSES[c] : CLASS_UNKNOWN;
+        if (charClass == CLASS_NEWLINE) { lines.add(curIndex + 1); return false; }
+        return switch (charClass) {
+            case CLASS_SPACE    -> { curIndex = input.skipSpaces(curIndex + 1) - 1; yield false; }
+            case CLASS_OPERATOR -> parseOperator();
+            case CLASS_DOT      -> hasNextChar() && isDigit(nextChar()) ? parseNumericToken() : parseOperator();
+            case CLASS_DIGIT    -> parseNumericToken();
+            case CLASS_QUOTE    -> parseStringLiteral(c);
+            default -> { skipIdentOrKeywordName(); yield tryParseIdentOrKeyword(); }
         };
     }
 
@@ -346,10 +969,8 @@ public class Lexer {
         return "Lexer{" +
                 "tokenList=" + tokenList +
                 ", curIndex=" + curIndex +
-                ", file_path='" + filePath + '\'' +
-                ", source='" + source + '\'' +
-                ", col=" + col +
-                ", row=" + row +
+                ", lines=" + lines +
+                ", input=" + input +
                 '}';
     }
 
@@ -358,11 +979,11 @@ public class Lexer {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Lexer lexer = (Lexer) o;
-        return curIndex == lexer.curIndex && col == lexer.col && row == lexer.row && Objects.equals(tokenList, lexer.tokenList) && Objects.equals(filePath, lexer.filePath) && Objects.equals(source, lexer.source);
+        return curIndex == lexer.curIndex && Objects.equals(tokenList, lexer.tokenList) && Objects.equals(lines.path(), lexer.lines.path()) && Objects.equals(input, lexer.input);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tokenList, curIndex, filePath, source, col, row);
+        return Objects.hash(tokenList, curIndex, lines.path(), input);
     }
 }
\ No newline at end of file
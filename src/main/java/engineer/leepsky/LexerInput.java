@@ -0,0 +1,399 @@
+package engineer.leepsky;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+// Characters the lexer reads from. Indexes are absolute positions in the whole input
+abstract class LexerInput {
+
+    // Runs of chars are scanned with the Vector API if the jdk.incubator.vector module is there
+    // (--add-modules jdk.incubator.vector). -Dengineer.leepsky.vector=false turns it off
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("engineer.leepsky.vector"));
+
+    abstract char charAt(int index);
+
+    abstract boolean hasCharAt(int index);
+
+    // Characters between start and end must not be released yet
+    String text(int start, int end) {
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) { text.append(charAt(i)); }
+        return text.toString();
+    }
+
+    // Same as text(), but may return a view of the source instead of a copy
+    CharSequence slice(int start, int end) {
+        return text(start, end);
+    }
+
+    boolean regionEquals(int start, int end, String s) {
+        if (end - start != s.length()) { return false; }
+        for (int i = 0; i < s.length(); i++) {
+            if (charAt(start + i) != s.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    // Tells the input that characters before the index will not be read anymore
+    void release(int index) { }
+
+    // Runs of chars the lexer skips. Each method returns the index of the first char at or after the index which
+    // is not in the run. Inputs may stop earlier, at the end of the chars read so far, so the char at the returned
+    // index has to be checked anyway
+
+    int skipSpaces(int index) {
+        while (hasCharAt(index) && charAt(index) == ' ') { index++; }
+        return index;
+    }
+
+    // ASCII letters, digits and underscores
+    int skipAsciiIdentChars(int index) {
+        while (hasCharAt(index) && Lexer.isAsciiIdentPart(charAt(index))) { index++; }
+        return index;
+    }
+
+    // Chars of a string literal other than the quote, backslashes and newlines. The last char of the input is not
+    // skipped, since the lexer has to look at it
+    int skipStringChars(int index, char quote) {
+        while (hasCharAt(index + 1)) {
+            char c = charAt(index);
+            if (c == quote || c == '\\' || c == '\n') { break; }
+            index++;
+        }
+        return index;
+    }
+
+    static class OfString extends LexerInput {
+
+        private String source;
+
+        // Chars from end on are not seen by the lexer
+        private int end;
+
+        // Even with the vector scans a run is scanned char by char up to this length, since most runs are shorter
+        // and copying them would not pay off. Longer runs are copied into the window piece by piece, the pieces
+        // grow from SHORT_RUN up to the size of the window
+        private static final int SHORT_RUN = 32;
+
+        private static final int WINDOW = 1024;
+
+        private static final int SPACES = 0;
+        private static final int IDENT_CHARS = 1;
+        private static final int STRING_CHARS = 2;
+
+        private char[] window;
+
+        OfString(String source, int end) {
+            this.source = source;
+            this.end = end;
+        }
+
+        OfString(String source) { this(source, source.length()); }
+
+        // Makes the input read another source, so that a reused lexer does not need a new input
+        void reset(String source) {
+            this.source = source;
+            this.end = source.length();
+        }
+
+        @Override
+        int skipSpaces(int index) {
+            int shortEnd = shortRunEnd(index, end);
+            while (index < shortEnd && source.charAt(index) == ' ') { index++; }
+            return index < shortEnd ? index : skipLongRun(index, end, SPACES, ' ');
+        }
+
+        @Override
+        int skipAsciiIdentChars(int index) {
+            int shortEnd = shortRunEnd(index, end);
+            while (index < shortEnd && Lexer.isAsciiIdentPart(source.charAt(index))) { index++; }
+            return index < shortEnd ? index : skipLongRun(index, end, IDENT_CHARS, ' ');
+        }
+
+        @Override
+        int skipStringChars(int index, char quote) {
+            int shortEnd = shortRunEnd(index, end - 1);
+            while (index < shortEnd) {
+                char c = source.charAt(index);
+                if (c == quote || c == '\\' || c == '\n') { return index; }
+                index++;
+            }
+            return skipLongRun(index, end - 1, STRING_CHARS, quote);
+        }
+
+        private static int shortRunEnd(int index, int to) {
+            return VECTOR ? Math.min(to, index + SHORT_RUN) : to;
+        }
+
+        // Does nothing without the vector scans, since then the short run already went up to the end
+        private int skipLongRun(int index, int to, int run, char quote) {
+            if (index >= to) { return index; }
+            if (window == null) { window = new char[WINDOW]; }
+            for (int piece = SHORT_RUN; index < to; piece = Math.min(piece * 2, WINDOW)) {
+                int length = Math.min(piece, to - index);
+                source.getChars(index, index + length, window, 0);
+                int stop = switch (run) {
+                    case SPACES      -> VectorScan.skipSpaces(window, 0, length);
+                    case IDENT_CHARS -> VectorScan.skipAsciiIdentChars(window, 0, length);
+                    default          -> VectorScan.skipStringChars(window, 0, length, quote);
+                };
+                index += stop;
+                if (stop < length) { break; }
+            }
+            return index;
+        }
+
+        String source() {
+            return source;
+        }
+
+        @Override
+        char charAt(int index) {
+            return source.charAt(index);
+        }
+
+        @Override
+        boolean hasCharAt(int index) {
+            return index < end;
+        }
+
+        @Override
+        String text(int start, int end) {
+            return source.substring(start, end);
+        }
+
+        @Override
+        CharSequence slice(int start, int end) {
+            return new SourceSlice(source, start, end);
+        }
+
+        @Override
+        boolean regionEquals(int start, int end, String s) {
+            return end - start == s.length() && source.startsWith(s, start);
+        }
+
+        @Override
+        public String toString() {
+            return source;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            OfString ofString = (OfString) o;
+            return end == ofString.end && Objects.equals(source, ofString.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, end);
+        }
+    }
+
+    // Keeps only a window of the input in memory. The window starts at the last released index and is refilled
+    // as the lexer advances. It grows only if a single token does not fit into it
+    abstract static class Buffered extends LexerInput {
+
+        static final int DEFAULT_CAPACITY = 8192;
+
+        private char[] buffer;
+
+        // Absolute index of buffer[0]
+        private int base;
+
+        // Number of valid characters in the buffer
+        private int limit;
+
+        private int released;
+
+        private boolean eof;
+
+        Buffered(int capacity) { buffer = new char[capacity]; }
+
+        // Reads at most len characters into dst. Returns the number of characters read or -1 at the end of input
+        abstract int fill(char[] dst, int off, int len) throws IOException;
+
+        @Override
+        char charAt(int index) {
+            if (index >= base + limit && !ensure(index)) { throw new IndexOutOfBoundsException(index); }
+            return buffer[index - base];
+        }
+
+        @Override
+        boolean hasCharAt(int index) {
+            return index < base + limit || ensure(index);
+        }
+
+        @Override
+        void release(int index) {
+            released = index;
+        }
+
+        @Override
+        String text(int start, int end) {
+            return new String(buffer, start - base, end - start);
+        }
+
+        // Spaces are released as they are skipped, all but the last one which the lexer is at. Otherwise a long
+        // run of them would be kept in the window and make it grow
+        @Override
+        int skipSpaces(int index) {
+            while (true) {
+                int end = base + limit;
+                if (VECTOR && index < end) { index = base + VectorScan.skipSpaces(buffer, index - base, limit); }
+                else {
+                    while (index < end && buffer[index - base] == ' ') { index++; }
+                }
+                if (index < end) { return index; }
+                released = Math.max(released, index - 1);
+                if (!ensure(index)) { return index; }
+            }
+        }
+
+        // The other vector scans stay in the chars read so far
+        @Override
+        int skipAsciiIdentChars(int index) {
+            if (!VECTOR || index >= base + limit) { return super.skipAsciiIdentChars(index); }
+            return base + VectorScan.skipAsciiIdentChars(buffer, index - base, limit);
+        }
+
+        @Override
+        int skipStringChars(int index, char quote) {
+            if (!VECTOR || index + 1 >= base + limit) { return super.skipStringChars(index, quote); }
+            return base + VectorScan.skipStringChars(buffer, index - base, limit - 1, quote);
+        }
+
+        private boolean ensure(int index) {
+            boolean full = limit == buffer.length;
+            while (index >= base + limit) {
+                if (eof) { return false; }
+                if (full) { compact(); }
+                int read;
+                try {
+                    read = fill(buffer, limit, buffer.length - limit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (read < 0) { eof = true; }
+                else { limit += read; }
+                // Indexes are int, so the input ends with the last char an int can index
+                if (base + limit < 0) {
+                    throw new UncheckedIOException(
+                            new IOException("Input is longer than " + Integer.MAX_VALUE + " chars"));
+                }
+                // fill() may read nothing if the next character does not fit into the rest of the buffer
+                full = read == 0 || limit == buffer.length;
+            }
+            return true;
+        }
+
+        private void compact() {
+            int drop = released - base;
+            if (drop == 0) {
+                // The current token takes the whole buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                return;
+            }
+            System.arraycopy(buffer, drop, buffer, 0, limit - drop);
+            base = released;
+            limit -= drop;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                    "base=" + base +
+                    ", limit=" + limit +
+                    ", capacity=" + buffer.length +
+                    ", eof=" + eof +
+                    '}';
+        }
+    }
+
+    static class OfReader extends Buffered {
+
+        private final Reader reader;
+
+        OfReader(Reader reader, int capacity) {
+            super(capacity);
+            this.reader = reader;
+        }
+
+        OfReader(Reader reader) { this(reader, DEFAULT_CAPACITY); }
+
+        @Override
+        int fill(char[] dst, int off, int len) throws IOException {
+            return reader.read(dst, off, len);
+        }
+    }
+
+    // Decodes UTF-8 bytes straight from a buffer (e.g. a memory-mapped file). ASCII bytes are copied as they are,
+    // only multibyte sequences go through the decoding. Malformed sequences are replaced with U+FFFD
+    static class OfUtf8 extends Buffered {
+
+        private static final char REPLACEMENT = '\uFFFD';
+
+        private final ByteBuffer bytes;
+
+        OfUtf8(ByteBuffer bytes, int capacity) {
+            super(capacity);
+            this.bytes = bytes.duplicate();
+        }
+
+        OfUtf8(ByteBuffer bytes) { this(bytes, DEFAULT_CAPACITY); }
+
+        @Override
+        int fill(char[] dst, int off, int len) {
+            int pos = bytes.position();
+            int end = bytes.limit();
+            if (pos == end) { return -1; }
+            int n = off;
+            int max = off + len;
+            while (n < max && pos < end) {
+                byte b = bytes.get(pos);
+                if (b >= 0) {
+                    dst[n++] = (char) b;
+                    pos++;
+                    continue;
+                }
+                int lead = b & 0xFF;
+                int count = lead >= 0xF5 ? -1 : lead >= 0xF0 ? 3 : lead >= 0xE0 ? 2 : lead >= 0xC2 ? 1 : -1;
+                int codePoint = count < 0 || pos + count >= end ? -1 : decode(lead, pos, count);
+                if (codePoint < 0) {
+                    dst[n++] = REPLACEMENT;
+                    pos++;
+                } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    dst[n++] = (char) codePoint;
+                    pos += count + 1;
+                } else {
+                    if (n + 2 > max) { break; }
+                    dst[n++] = Character.highSurrogate(codePoint);
+                    dst[n++] = Character.lowSurrogate(codePoint);
+                    pos += count + 1;
+                }
+            }
+            bytes.position(pos);
+            return n - off;
+        }
+
+        // Returns the code point of the sequence or -1 if the sequence is malformed
+        private int decode(int lead, int pos, int count) {
+            int codePoint = lead & (0x3F >> count);
+            for (int i = 1; i <= count; i++) {
+                int next = bytes.get(pos + i);
+                if ((next & 0xC0) != 0x80) { return -1; }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (count == 2 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint))) { return -1; }
+            if (count == 3 && (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT
+                    || codePoint > Character.MAX_CODE_POINT)) { return -1; }
+            return codePoint;
+        }
+    }
+}
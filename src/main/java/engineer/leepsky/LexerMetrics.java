@@ -0,0 +1,222 @@
+package engineer.leepsky;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of all the lexers in the JVM. They are off by default, and then a lexer only reads a flag once per run
+// and checks a null field per token. A lexer counts its tokens in an array of its own and adds them here when its
+// run ends. A run is a call of Lexer.lex or lexToBuffer, a setSource, a chunk of lexParallel, a relex (only the
+// chars it lexes again) or a whole TokenStream read to its end. Every run is also recorded as a LexEvent if Flight
+// Recorder is on
+public final class LexerMetrics {
+
+    static final String OBJECT_NAME = "engineer.leepsky:type=LexerMetrics";
+
+    // Layout of the counts: tokens by Token.Type, Special tokens by Special.Kind, Unparsed tokens by Unparsed.Fail
+    private static final int SPECIALS = Token.TYPES.length;
+    private static final int FAILS    = SPECIALS + Token.SPECIAL_KINDS.length;
+    static final int COUNTERS         = FAILS + Token.FAILS.length;
+
+    private static volatile boolean enabled;
+
+    private static final LongAdder runs = new LongAdder();
+
+    private static final LongAdder chars = new LongAdder();
+
+    private static final LongAdder nanos = new LongAdder();
+
+    private static final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private static final LongAdder[] counters = new LongAdder[COUNTERS];
+
+    static {
+        for (int i = 0; i < COUNTERS; i++) { counters[i] = new LongAdder(); }
+    }
+
+    private LexerMetrics() { }
+
+    public record Snapshot(long runs, long chars, long nanos, long maxNanos, Map<Token.Type, Long> tokens,
+                           Map<Token.Special.Kind, Long> specials, Map<Token.Unparsed.Fail, Long> failures) {
+
+        public long tokenCount() {
+            return tokens.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public double charsPerSecond() {
+            return nanos == 0 ? 0 : chars * 1e9 / nanos;
+        }
+
+        public double nanosPerRun() {
+            return runs == 0 ? 0 : (double) nanos / runs;
+        }
+    }
+
+    // Attributes and operations seen through JMX
+    public interface MetricsMXBean {
+
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        long getRuns();
+
+        long getChars();
+
+        long getNanos();
+
+        long getMaxNanos();
+
+        double getCharsPerSecond();
+
+        Map<String, Long> getTokens();
+
+        Map<String, Long> getSpecials();
+
+        Map<String, Long> getFailures();
+
+        void reset();
+    }
+
+    // Also registers the metrics in the platform MBean server, once
+    public static void enable() {
+        register();
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Counts of the runs which are still going may be added after the reset
+    public static void reset() {
+        runs.reset();
+        chars.reset();
+        nanos.reset();
+        maxNanos.reset();
+        for (LongAdder counter : counters) { counter.reset(); }
+    }
+
+    // The counters are read one by one, so a snapshot taken while lexers run may be a bit inconsistent
+    public static Snapshot snapshot() {
+        Map<Token.Type, Long> tokens = new EnumMap<>(Token.Type.class);
+        for (Token.Type type : Token.TYPES) { tokens.put(type, counters[type.ordinal()].sum()); }
+        Map<Token.Special.Kind, Long> specials = new EnumMap<>(Token.Special.Kind.class);
+        for (Token.Special.Kind kind : Token.SPECIAL_KINDS) { specials.put(kind, counters[SPECIALS + kind.ordinal()].sum()); }
+        Map<Token.Unparsed.Fail, Long> failures = new EnumMap<>(Token.Unparsed.Fail.class);
+        for (Token.Unparsed.Fail fail : Token.FAILS) { failures.put(fail, counters[FAILS + fail.ordinal()].sum()); }
+        return new Snapshot(runs.sum(), chars.sum(), nanos.sum(), maxNanos.get(), Collections.unmodifiableMap(tokens),
+                Collections.unmodifiableMap(specials), Collections.unmodifiableMap(failures));
+    }
+
+    // kind is the one of Token.of
+    static void count(int[] counts, Token.Type type, int kind) {
+        counts[type.ordinal()]++;
+        if (type == Token.Type.SPECIAL) { counts[SPECIALS + kind]++; }
+        else if (type == Token.Type.UNPARSED) { counts[FAILS + kind]++; }
+    }
+
+    static void record(int[] counts, long runChars, long runNanos) {
+        runs.increment();
+        chars.add(runChars);
+        nanos.add(runNanos);
+        maxNanos.accumulate(runNanos);
+        for (int i = 0; i < COUNTERS; i++) {
+            if (counts[i] != 0) { counters[i].add(counts[i]); }
+        }
+    }
+
+    private static boolean registered;
+
+    private static synchronized void register() {
+        if (registered) { return; }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by another copy of the class, e.g. in another class loader
+        } catch (JMException e) {
+            throw new IllegalStateException("Can not register " + OBJECT_NAME, e);
+        }
+        registered = true;
+    }
+
+    private static class Bean implements MetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            LexerMetrics.enabled = enabled;
+        }
+
+        @Override
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        @Override
+        public long getChars() {
+            return chars.sum();
+        }
+
+        @Override
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        @Override
+        public double getCharsPerSecond() {
+            return snapshot().charsPerSecond();
+        }
+
+        @Override
+        public Map<String, Long> getTokens() {
+            return byName(snapshot().tokens());
+        }
+
+        @Override
+        public Map<String, Long> getSpecials() {
+            return byName(snapshot().specials());
+        }
+
+        @Override
+        public Map<String, Long> getFailures() {
+            return byName(snapshot().failures());
+        }
+
+        @Override
+        public void reset() {
+            LexerMetrics.reset();
+        }
+
+        private static Map<String, Long> byName(Map<? extends Enum<?>, Long> counts) {
+            Map<String, Long> byName = new LinkedHashMap<>();
+            counts.forEach((key, count) -> byName.put(key.name(), count));
+            return byName;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LexerMetrics" + snapshot();
+    }
+}
@@ -0,0 +1,118 @@
+package engineer.leepsky;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+// Reads and lexes many files at once, every file on its own virtual thread.
+// At most `parallelism` files are read, lexed and handed to the consumer at the same time. The caller is blocked
+// until a file is done before the next one is started, so the memory taken stays bounded however many files there are
+public class LexerService {
+
+    // Either tokens or error is null. The error is the IOException of reading the file or an exception of the lexer
+    public record Result(List<Token> tokens, Exception error) {
+        public boolean isOk() {
+            return error == null;
+        }
+    }
+
+    private final int parallelism;
+
+    private final boolean uniteStrings;
+
+    // Shared by all the files, null if names are not interned
+    private final SymbolTable symbols;
+
+    public LexerService(int parallelism, boolean uniteStrings) {
+        this(parallelism, uniteStrings, null);
+    }
+
+    // All the files intern their names into the same table, so a name has the same symbol id in every file
+    public LexerService(int parallelism, boolean uniteStrings, SymbolTable symbols) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+        this.uniteStrings = uniteStrings;
+        this.symbols = symbols;
+    }
+
+    public LexerService(int parallelism) {
+        this(parallelism, false);
+    }
+
+    // The consumer is called from several threads at once. Returns when all the files are done. If the consumer
+    // throws, no more files are started, and the exception is thrown from here once the running files are done
+    // (with the exceptions of the other files, if any, suppressed)
+    public void lexAll(Iterator<Path> files, BiConsumer<Path, Result> consumer) throws InterruptedException {
+        Semaphore permits = new Semaphore(parallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (files.hasNext() && failure.get() == null) {
+                Path file = files.next();
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        consumer.accept(file, lex(file));
+                    } catch (Throwable e) {
+                        if (!failure.compareAndSet(null, e) && failure.get() != e) { failure.get().addSuppressed(e); }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException runtime) { throw runtime; }
+        if (e instanceof Error error) { throw error; }
+        if (e != null) { throw new IllegalStateException("Consumer failed", e); }
+    }
+
+    public Map<Path, Result> lexAll(Collection<Path> files) throws InterruptedException {
+        Map<Path, Result> results = new ConcurrentHashMap<>();
+        lexAll(files.iterator(), results::put);
+        return results;
+    }
+
+    // Lexes regular files under the directory whose paths relative to it match the glob, e.g. "**.txt"
+    public Map<Path, Result> lexAll(Path directory, String glob) throws IOException, InterruptedException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        Map<Path, Result> results = new ConcurrentHashMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            lexAll(files.filter(file -> Files.isRegularFile(file) && matcher.matches(directory.relativize(file)))
+                    .iterator(), results::put);
+        }
+        return results;
+    }
+
+    private Result lex(Path file) {
+        try {
+            String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            return new Result(symbols == null
+                    ? Lexer.lex(source, file.toString(), uniteStrings)
+                    : Lexer.lex(source, file.toString(), uniteStrings, symbols), null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(null, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LexerService{" +
+                "parallelism=" + parallelism +
+                ", uniteStrings=" + uniteStrings +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+package engineer.leepsky;
+
+import java.util.Arrays;
+
+// Offsets at which the lines of a source start. Tokens keep only their offsets, and their rows and columns are
+// found here by a binary search when asked for. The lexer adds the lines as it meets newlines, so the index covers
+// the source up to the point the lexer has got to. The path is kept here once for all the tokens of the source
+final class LineIndex {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final String path;
+
+    private int[] starts;
+
+    private int size;
+
+    LineIndex(String path) {
+        this.path = path;
+        starts = new int[DEFAULT_CAPACITY];
+        size = 1;
+    }
+
+    String path() {
+        return path;
+    }
+
+    // Lines must be added in order. A line which is already there is ignored
+    void add(int start) {
+        if (start <= starts[size - 1]) { return; }
+        if (size == starts.length) { starts = Arrays.copyOf(starts, size * 2); }
+        starts[size++] = start;
+    }
+
+    // Adds the lines of the other index which start after from, shifted by delta. The line starting at from is
+    // left out, since the newline before it is not after from
+    void addAll(LineIndex other, int from, int delta) {
+        for (int i = other.line(from) + 1; i < other.size; i++) { add(other.starts[i] + delta); }
+    }
+
+    // Copies the lines which start at the offset or before it
+    LineIndex prefix(int offset) {
+        LineIndex prefix = new LineIndex(path);
+        prefix.size = line(offset) + 1;
+        prefix.starts = Arrays.copyOf(starts, Math.max(prefix.size, DEFAULT_CAPACITY));
+        return prefix;
+    }
+
+    // Index of the line the offset is in, starting from 0
+    private int line(int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    int row(int offset) {
+        return line(offset) + 1;
+    }
+
+    int col(int offset) {
+        return offset - starts[line(offset)] + 1;
+    }
+
+    Token.Location location(int offset) {
+        int line = line(offset);
+        return new Token.Location(path, offset - starts[line] + 1, line + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "LineIndex{" +
+                "path='" + path + '\'' +
+                ", lines=" + size +
+                '}';
+    }
+}
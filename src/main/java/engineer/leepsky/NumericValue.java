@@ -0,0 +1,101 @@
+package engineer.leepsky;
+
+// Value of a number literal accumulated digit by digit while the lexer reads it, so no String is made for it.
+// Underscores are skipped. The first 18-19 significant digits are kept in a long, the rest only move the exponent.
+// A double is exact whenever the digits and the power of ten fit into doubles, the other (rare) literals are
+// rounded by Double.parseDouble
+final class NumericValue {
+
+    static final long LONG_LIMIT = Long.MAX_VALUE / 10;
+
+    private static final int LAST_DIGIT_LIMIT = (int) (Long.MAX_VALUE % 10);
+
+    private static final long EXACT_MANTISSA_LIMIT = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private long mantissa;
+
+    // The value is mantissa * 10^exponent
+    private int exponent;
+
+    // Set if non-zero digits did not fit into the mantissa
+    private boolean inexact;
+
+    void reset() {
+        set(0, 0);
+    }
+
+    void set(long mantissa, int exponent) {
+        this.mantissa = mantissa;
+        this.exponent = exponent;
+        this.inexact = false;
+    }
+
+    // Digits after the dot are the fraction
+    void digit(int digit, boolean fraction) {
+        if (mantissa < LONG_LIMIT || mantissa == LONG_LIMIT && digit <= LAST_DIGIT_LIMIT) {
+            mantissa = mantissa * 10 + digit;
+            if (fraction) { exponent--; }
+        } else {
+            if (!fraction) { exponent++; }
+            if (digit != 0) { inexact = true; }
+        }
+    }
+
+    // An integer literal overflows if some of its digits did not fit into the mantissa
+    boolean overflows() {
+        return exponent > 0;
+    }
+
+    long longValue() {
+        return mantissa;
+    }
+
+    // The chars of the literal are needed only if the value can not be computed exactly from the mantissa
+    double doubleValue(LexerInput input, int start, int end) {
+        if (!inexact) {
+            if (exponent == 0 || mantissa == 0) { return mantissa; }
+            if (mantissa < EXACT_MANTISSA_LIMIT) {
+                if (exponent < 0 && -exponent < POWERS_OF_TEN.length) { return mantissa / POWERS_OF_TEN[-exponent]; }
+                if (exponent > 0 && exponent < POWERS_OF_TEN.length) { return mantissa * POWERS_OF_TEN[exponent]; }
+            }
+        }
+        StringBuilder digits = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '.') { digits.append(c); }
+            else if (c != '_') { digits.append((char) ('0' + Character.digit(c, 10))); }
+        }
+        return Double.parseDouble(digits.toString());
+    }
+
+    // Accumulates the chars between start and end: digits, underscores and at most one dot
+    void parse(LexerInput input, int start, int end) {
+        reset();
+        boolean fraction = false;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            int digit = Character.digit(c, 10);
+            if (digit >= 0) { digit(digit, fraction); }
+            else if (c == '.' && !fraction) { fraction = true; }
+            else if (c != '_') { throw new NumberFormatException("Not a number literal: " + input.text(start, end)); }
+        }
+    }
+
+    static NumericValue of(CharSequence text) {
+        NumericValue value = new NumericValue();
+        value.parse(new LexerInput.OfString(text.toString()), 0, text.length());
+        return value;
+    }
+
+    static double doubleOf(CharSequence text) {
+        LexerInput input = new LexerInput.OfString(text.toString());
+        NumericValue value = new NumericValue();
+        value.parse(input, 0, text.length());
+        return value.doubleValue(input, 0, text.length());
+    }
+}
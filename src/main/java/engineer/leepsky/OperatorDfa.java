@@ -0,0 +1,154 @@
+package engineer.leepsky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// Operators compiled into a minimized DFA. Chars are mapped to a few columns first, so the transitions are a small
+// table indexed by state * columns + column. The lexer follows the transitions while there are any and takes
+// the longest operator it has passed (maximal munch)
+final class OperatorDfa {
+
+    // Operators of Special.Kind, accepted with the ordinals of the kinds
+    static final OperatorDfa DEFAULT = of(Token.Special.Kind.values());
+
+    // Dead state has no way out, lexing starts in the start state
+    static final int DEAD  = 0;
+    static final int START = 1;
+
+    // Column of every ASCII char, 0 for chars which are in no operator
+    private final byte[] columns;
+
+    private final int columnCount;
+
+    private final int[] transitions;
+
+    // Kind the state accepts or -1
+    private final int[] accepts;
+
+    private OperatorDfa(byte[] columns, int columnCount, int[] transitions, int[] accepts) {
+        this.columns = columns;
+        this.columnCount = columnCount;
+        this.transitions = transitions;
+        this.accepts = accepts;
+    }
+
+    static OperatorDfa of(Token.Special.Kind[] kinds) {
+        Builder builder = new Builder();
+        for (Token.Special.Kind kind : kinds) { builder.add(kind.spelling(), kind.ordinal()); }
+        return builder.build();
+    }
+
+    int next(int state, char c) {
+        return c < 128 ? transitions[state * columnCount + columns[c]] : DEAD;
+    }
+
+    int accept(int state) {
+        return accepts[state];
+    }
+
+    int states() {
+        return accepts.length;
+    }
+
+    static class Builder {
+
+        private final Map<String, Integer> operators = new LinkedHashMap<>();
+
+        // Operators are non-empty strings of printable ASCII chars other than letters, digits, quotes and spaces
+        Builder add(String spelling, int kind) {
+            if (spelling.isEmpty() || !spelling.chars().allMatch(Builder::isOperatorChar)) {
+                throw new IllegalArgumentException("Not an operator: " + spelling);
+            }
+            if (kind < 0) { throw new IllegalArgumentException("Negative kind of " + spelling); }
+            if (operators.putIfAbsent(spelling, kind) != null) {
+                throw new IllegalArgumentException("Duplicate operator: " + spelling);
+            }
+            return this;
+        }
+
+        private static boolean isOperatorChar(int c) {
+            return c > ' ' && c < 127 && !Character.isLetterOrDigit(c) && c != '_' && c != '"' && c != '\'';
+        }
+
+        OperatorDfa build() {
+            byte[] columns = new byte[128];
+            int columnCount = 1;
+            for (String spelling : operators.keySet()) {
+                for (char c : spelling.toCharArray()) {
+                    if (columns[c] == 0) { columns[c] = (byte) columnCount++; }
+                }
+            }
+
+            // Trie of the operators, state 0 is the dead state and state 1 is the root
+            List<int[]> trie = new ArrayList<>();
+            List<Integer> accepts = new ArrayList<>();
+            trie.add(new int[columnCount]);
+            accepts.add(-1);
+            trie.add(new int[columnCount]);
+            accepts.add(-1);
+            for (Map.Entry<String, Integer> operator : operators.entrySet()) {
+                int state = START;
+                for (char c : operator.getKey().toCharArray()) {
+                    if (trie.get(state)[columns[c]] == DEAD) {
+                        trie.get(state)[columns[c]] = trie.size();
+                        trie.add(new int[columnCount]);
+                        accepts.add(-1);
+                    }
+                    state = trie.get(state)[columns[c]];
+                }
+                accepts.set(state, operator.getValue());
+            }
+            return minimize(columns, columnCount, trie, accepts);
+        }
+
+        // Moore's algorithm: states start split by what they accept, and groups are split by where their
+        // transitions lead until nothing changes
+        private static OperatorDfa minimize(byte[] columns, int columnCount, List<int[]> trie, List<Integer> accepts) {
+            int n = trie.size();
+            int[] group = new int[n];
+            int groups = split(n, s -> List.of(s == DEAD ? -2 : accepts.get(s)), group);
+            while (true) {
+                int[] previous = group.clone();
+                int count = split(n, s -> {
+                    List<Integer> signature = new ArrayList<>(columnCount + 1);
+                    signature.add(previous[s]);
+                    for (int target : trie.get(s)) { signature.add(previous[target]); }
+                    return signature;
+                }, group);
+                if (count == groups) { break; }
+                groups = count;
+            }
+
+            // Groups are numbered in the order of their first states, so the dead and the start states keep 0 and 1
+            int[] transitions = new int[groups * columnCount];
+            int[] groupAccepts = new int[groups];
+            for (int s = 0; s < n; s++) {
+                for (int column = 0; column < columnCount; column++) {
+                    transitions[group[s] * columnCount + column] = group[trie.get(s)[column]];
+                }
+                groupAccepts[group[s]] = accepts.get(s);
+            }
+            return new OperatorDfa(columns, columnCount, transitions, groupAccepts);
+        }
+
+        private static int split(int n, IntFunction<List<Integer>> signature, int[] group) {
+            Map<List<Integer>, Integer> ids = new HashMap<>();
+            for (int s = 0; s < n; s++) { group[s] = ids.computeIfAbsent(signature.apply(s), k -> ids.size()); }
+            return ids.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OperatorDfa{" +
+                "states=" + accepts.length +
+                ", columns=" + columnCount +
+                ", accepts=" + Arrays.toString(accepts) +
+                '}';
+    }
+}
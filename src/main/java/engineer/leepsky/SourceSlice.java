@@ -0,0 +1,70 @@
+package engineer.leepsky;
+
+import java.util.Objects;
+
+// A part of the source seen as a CharSequence without copying it. The String is made once toString() is called.
+// Note that a slice keeps the whole source reachable
+final class SourceSlice implements CharSequence {
+
+    private final String source;
+
+    private final int start;
+
+    private final int end;
+
+    private String string;
+
+    SourceSlice(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return source.charAt(start + Objects.checkIndex(index, end - start));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, this.end - this.start);
+        return new SourceSlice(source, this.start + start, this.start + end);
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) { string = source.substring(start, end); }
+        return string;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return CharSequence.compare(this, (SourceSlice) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(this);
+    }
+
+    // Same as String.hashCode(), but for any CharSequence
+    static int hash(CharSequence text) {
+        if (text == null || text instanceof String) { return Objects.hashCode(text); }
+        int h = 0;
+        for (int i = 0; i < text.length(); i++) { h = 31 * h + text.charAt(i); }
+        return h;
+    }
+
+    // Compares the chars, whatever CharSequence implementations are given
+    static boolean contentEquals(CharSequence a, CharSequence b) {
+        if (a == null || b == null) { return a == b; }
+        return CharSequence.compare(a, b) == 0;
+    }
+}
@@ -0,0 +1,147 @@
+package engineer.leepsky;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+
+// Interned names of identifiers (and contents of string literals if asked for) with dense ids: the first new name
+// gets 0, the next one 1 and so on. Names are looked up by the hash of their chars right in the source, so a name
+// which is already there costs no String. One table can be shared by several lexers, also at once: names which are
+// already there are found without a lock, only adding a name takes it
+public final class SymbolTable {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Slots are read with acquire and written with release, so a reader which sees a slot sees its name and hash
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final boolean strings;
+
+    // Arrays of the table. A full table is copied into a bigger one, which is then published, so a reader always
+    // sees arrays which belong together. Names are added to the current arrays only under the lock
+    private static final class Table {
+
+        // Name and hash of every id
+        final String[] names;
+
+        final int[] hashes;
+
+        // Id + 1 of every slot, 0 for empty slots. At least half of the slots are empty
+        final int[] slots;
+
+        Table(int capacity) {
+            names = new String[capacity];
+            hashes = new int[capacity];
+            slots = new int[capacity * 2];
+        }
+    }
+
+    private volatile Table table;
+
+    // Written after the name and the slot of a new id
+    private volatile int size;
+
+    public SymbolTable() {
+        this(false);
+    }
+
+    // With strings, contents of string literals get ids as well. They share the ids with the identifiers
+    public SymbolTable(boolean strings) {
+        this.strings = strings;
+        table = new Table(DEFAULT_CAPACITY);
+    }
+
+    public boolean internsStrings() {
+        return strings;
+    }
+
+    // Returns the id of the chars between start and end, adding them if they are not there yet.
+    // The hash is the one of the chars, see KeywordTable.hash
+    int intern(LexerInput input, int start, int end, int hash) {
+        Table t = table;
+        int mask = t.slots.length - 1;
+        for (int slot = slot(hash, t.slots); ; slot = (slot + 1) & mask) {
+            int id = (int) SLOTS.getAcquire(t.slots, slot) - 1;
+            if (id < 0) { return add(input, start, end, hash); }
+            if (t.hashes[id] == hash && input.regionEquals(start, end, t.names[id])) { return id; }
+        }
+    }
+
+    int intern(CharSequence name) {
+        int hash = KeywordTable.hash(name);
+        int id = find(table, name, hash);
+        return id >= 0 ? id : add(name, hash);
+    }
+
+    // Returns the id of the name or -1
+    public int id(CharSequence name) {
+        return find(table, name, KeywordTable.hash(name));
+    }
+
+    public String name(int id) {
+        Objects.checkIndex(id, size);
+        return table.names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the id of the name or -1
+    private static int find(Table t, CharSequence name, int hash) {
+        int mask = t.slots.length - 1;
+        for (int slot = slot(hash, t.slots); ; slot = (slot + 1) & mask) {
+            int id = (int) SLOTS.getAcquire(t.slots, slot) - 1;
+            if (id < 0 || t.hashes[id] == hash && t.names[id].contentEquals(name)) { return id; }
+        }
+    }
+
+    private int add(LexerInput input, int start, int end, int hash) {
+        return add(input.text(start, end), hash);
+    }
+
+    // The name may have been added by another thread since it was looked for, so it is looked for again
+    private synchronized int add(CharSequence name, int hash) {
+        int id = find(table, name, hash);
+        if (id >= 0) { return id; }
+        Table t = table;
+        if (size == t.names.length) { t = grow(t); }
+        id = size;
+        t.names[id] = name.toString();
+        t.hashes[id] = hash;
+        int mask = t.slots.length - 1;
+        int slot = slot(hash, t.slots);
+        while (t.slots[slot] != 0) { slot = (slot + 1) & mask; }
+        SLOTS.setRelease(t.slots, slot, id + 1);
+        size = id + 1;
+        return id;
+    }
+
+    // Copies the names into arrays twice as big and publishes them
+    private Table grow(Table t) {
+        Table bigger = new Table(t.names.length * 2);
+        System.arraycopy(t.names, 0, bigger.names, 0, size);
+        System.arraycopy(t.hashes, 0, bigger.hashes, 0, size);
+        int mask = bigger.slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = slot(bigger.hashes[id], bigger.slots);
+            while (bigger.slots[slot] != 0) { slot = (slot + 1) & mask; }
+            bigger.slots[slot] = id + 1;
+        }
+        table = bigger;
+        return bigger;
+    }
+
+    // Takes the high bits of the product, which depend on all the bits of the hash
+    private static int slot(int hash, int[] slots) {
+        return (hash * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(slots.length) + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable{" +
+                "size=" + size +
+                ", strings=" + strings +
+                '}';
+    }
+}
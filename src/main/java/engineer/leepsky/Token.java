@@ -1,35 +1,101 @@
 package engineer.leepsky;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 
-public abstract class Token {
+// The subclasses are all here, so a switch over a token can be exhaustive without a default
+public abstract sealed class Token {
 
     record Location(String pathToFile, int col, int row) { }
 
     protected Location loc;
 
+    // Tokens made by the lexer keep only their offset in the source, and the location is found in the line index
+    // every time it is asked for. It is not kept, so the tokens stay as small as they are
+    final LineIndex lines;
+
+    final int offset;
+
     public Location getLoc() {
-        return loc;
+        return loc != null || lines == null ? loc : lines.location(offset);
     }
 
     public void setLoc(Location loc) {
         this.loc = loc;
     }
 
-    Token(Location loc) { this.loc = loc; }
+    Token(Location loc) { this.loc = loc; this.lines = null; this.offset = 0; }
+
+    Token(LineIndex lines, int offset) { this.lines = lines; this.offset = offset; }
+
+    // One constant per type, keyword and operator. Switching over it does not need the token to be cast
+    public abstract TokenKind kind();
+
+    public Type type() {
+        return kind().type();
+    }
 
     // kinds of tokens
 
-    public static class Identifier extends Token {
+    public enum Type {
+        IDENTIFIER,
+        KEYWORD,
+        SPECIAL,
+        STRING_LITERAL,
+        INT_LITERAL,
+        FLOAT_LITERAL,
+        UNPARSED
+    }
 
-        protected String name;
+    static final Type[] TYPES = Type.values();
+
+    static final Special.Kind[] SPECIAL_KINDS = Special.Kind.values();
+
+    static final Unparsed.Fail[] FAILS = Unparsed.Fail.values();
+
+    // kind is the keyword id in the table, the symbol id of an identifier or a string literal (-1 if there is none),
+    // 1 for an int literal which overflows a long (0 otherwise) or the ordinal of Special.Kind or Unparsed.Fail,
+    // text is the name, content or value. value is the long value of an int literal or the bits of the double value
+    // of a float literal
+    static Token of(Type type, int kind, CharSequence text, long value, LineIndex lines, int offset,
+                    KeywordTable keywords) {
+        return switch (type) {
+            case IDENTIFIER     -> new Identifier(text, kind, lines, offset);
+            case KEYWORD        -> keywords.keyword(kind, lines, offset);
+            case SPECIAL        -> new Special(SPECIAL_KINDS[kind], lines, offset);
+            case STRING_LITERAL -> new StringLiteral(text, kind, lines, offset);
+            case INT_LITERAL    -> new IntLiteral(text, value, kind != 0, lines, offset);
+            case FLOAT_LITERAL  -> new FloatLiteral(text, Double.longBitsToDouble(value), lines, offset);
+            case UNPARSED       -> new Unparsed(FAILS[kind], lines, offset);
+        };
+    }
 
-        Identifier(String name, Location loc) {
+    public static final class Identifier extends Token {
+
+        protected CharSequence name;
+
+        // Id of the name in the SymbolTable of the lexer or -1
+        private final int symbol;
+
+        Identifier(CharSequence name, int symbol, LineIndex lines, int offset) {
+            super(lines, offset);
+            this.name = name;
+            this.symbol = symbol;
+        }
+
+        Identifier(CharSequence name, int symbol, Location loc) {
             super(loc);
             this.name = name;
+            this.symbol = symbol;
         }
 
         public String getName() {
+            return name.toString();
+        }
+
+        // The name as it is in the source. Unlike getName() it does not make a String
+        public CharSequence getText() {
             return name;
         }
 
@@ -37,11 +103,20 @@ public abstract class Token {
             this.name = name;
         }
 
+        public int getSymbol() {
+            return symbol;
+        }
+
+        @Override
+        public TokenKind kind() {
+            return TokenKind.IDENTIFIER;
+        }
+
         @Override
         public String toString() {
             return "Token.Identifier{" +
                     "name='" + name + '\'' +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -56,25 +131,44 @@ public abstract class Token {
             if (o == null || getClass() != o.getClass()) return false;
             if (!super.equals(o)) return false;
             Identifier that = (Identifier) o;
-            return Objects.equals(name, that.name);
+            return SourceSlice.contentEquals(name, that.name);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), name);
+            return 31 * super.hashCode() + SourceSlice.hash(name);
         }
 
     }
 
-    public static class Keyword extends Token {
+    public static final class Keyword extends Token {
+        // Spellings of the keywords are in src/main/spec/tokens.spec
         enum Kind {
             EXAMPLE_KEYWORD_1,
             EXAMPLE_KEYWORD_2,
-            NONE
+            NONE;
+
+            static final Kind[] KEYWORDS = { EXAMPLE_KEYWORD_1, EXAMPLE_KEYWORD_2 };
+
+            String spelling() {
+                return GeneratedScanner.spelling(this);
+            }
+
+            static Kind of(String spelling) {
+                for (Kind kind : KEYWORDS) {
+                    if (kind.spelling().equals(spelling)) { return kind; }
+                }
+                return NONE;
+            }
         }
 
         private Kind keywordKind;
 
+        // Index of the keyword in its KeywordTable
+        private final int id;
+
+        private final String name;
+
         public Kind getKind() {
             return keywordKind;
         }
@@ -83,24 +177,48 @@ public abstract class Token {
             this.keywordKind = keywordKind;
         }
 
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
         public Keyword(Keyword.Kind kind, Location loc) {
+            this(kind, kind.ordinal(), kind.spelling(), loc);
+        }
+
+        Keyword(Keyword.Kind kind, int id, String name, Location loc) {
             super(loc);
             this.keywordKind = kind;
+            this.id = id;
+            this.name = name;
+        }
+
+        Keyword(Keyword.Kind kind, int id, String name, LineIndex lines, int offset) {
+            super(lines, offset);
+            this.keywordKind = kind;
+            this.id = id;
+            this.name = name;
         }
 
         public static Kind getKeywordKindByName(String name) {
-            switch (name) {
-                case "example1" -> { return Kind.EXAMPLE_KEYWORD_1; }
-                case "example2" -> { return Kind.EXAMPLE_KEYWORD_2; }
-                default ->  { return Kind.NONE; }
-            }
+            int id = KeywordTable.DEFAULT.id(name);
+            return id < 0 ? Kind.NONE : KeywordTable.DEFAULT.kind(id);
+        }
+
+        @Override
+        public TokenKind kind() {
+            return GeneratedScanner.kind(keywordKind);
         }
 
         @Override
         public String toString() {
             return "Token.Keyword{" +
                     "keywordKind=" + keywordKind +
-                    ", loc=" + loc +
+                    ", name='" + name + '\'' +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -115,17 +233,18 @@ public abstract class Token {
             if (o == null || getClass() != o.getClass()) return false;
             if (!super.equals(o)) return false;
             Keyword keyword = (Keyword) o;
-            return keywordKind == keyword.keywordKind;
+            return keywordKind == keyword.keywordKind && Objects.equals(name, keyword.name);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), keywordKind);
+            return 31 * (31 * super.hashCode() + Objects.hashCode(keywordKind)) + Objects.hashCode(name);
         }
     }
 
-    public static class Special extends Token {
+    public static final class Special extends Token {
 
+        // Spellings of the operators are in src/main/spec/tokens.spec
         enum Kind {
             // Brackets
             CURLY_OPEN,
@@ -156,7 +275,11 @@ public abstract class Token {
             BIGGER,
             AMPERSAND,
             DBL_AMPERSAND,
-            AT
+            AT;
+
+            String spelling() {
+                return GeneratedScanner.spelling(this);
+            }
         }
 
         private Kind specialKind;
@@ -169,16 +292,26 @@ public abstract class Token {
             this.specialKind = kind;
         }
 
+        Special(Kind specialKind, LineIndex lines, int offset) {
+            super(lines, offset);
+            this.specialKind = specialKind;
+        }
+
         Special(Kind specialKind, Location loc) {
             super(loc);
             this.specialKind = specialKind;
         }
 
+        @Override
+        public TokenKind kind() {
+            return GeneratedScanner.kind(specialKind);
+        }
+
         @Override
         public String toString() {
             return "Token.Special{" +
                     "specialKind=" + specialKind +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -198,19 +331,35 @@ public abstract class Token {
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), specialKind);
+            return 31 * super.hashCode() + Objects.hashCode(specialKind);
         }
     }
 
-    public static class StringLiteral extends Token {
+    public static final class StringLiteral extends Token {
+
+        private CharSequence content;
+
+        // Id of the content in the SymbolTable of the lexer or -1
+        private final int symbol;
 
-        private String content;
-       StringLiteral(String content, Location loc) {
-           super(loc);
+       StringLiteral(CharSequence content, int symbol, LineIndex lines, int offset) {
+           super(lines, offset);
            this.content = content;
+           this.symbol = symbol;
        }
 
+        StringLiteral(CharSequence content, int symbol, Location loc) {
+            super(loc);
+            this.content = content;
+            this.symbol = symbol;
+        }
+
         public String getContent() {
+            return content.toString();
+        }
+
+        // The content without making a String. It is a view of the source unless the literal has escapes
+        public CharSequence getText() {
             return content;
         }
 
@@ -218,6 +367,15 @@ public abstract class Token {
             this.content = content;
         }
 
+        public int getSymbol() {
+            return symbol;
+        }
+
+        @Override
+        public TokenKind kind() {
+            return TokenKind.STRING_LITERAL;
+        }
+
         @Override
         public String toStringNL() {
             return "Token.StringLiteral{\"" + content + "\"}";
@@ -227,7 +385,7 @@ public abstract class Token {
         public String toString() {
             return "StringLiteral{" +
                     "content='" + content + '\'' +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -237,36 +395,82 @@ public abstract class Token {
             if (o == null || getClass() != o.getClass()) return false;
             if (!super.equals(o)) return false;
             StringLiteral that = (StringLiteral) o;
-            return Objects.equals(content, that.content);
+            return SourceSlice.contentEquals(content, that.content);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), content);
+            return 31 * super.hashCode() + SourceSlice.hash(content);
         }
     }
 
-    public static class IntLiteral extends Token {
-        private String value;
+    public static final class IntLiteral extends Token {
+        private CharSequence value;
 
-        public IntLiteral(String value, Location loc) {
+        // Computed by the lexer while it read the literal. Literals made or changed otherwise parse their value
+        // when it is asked for. Then computed is set with release after the value, so threads which share the
+        // token and see it set see the value as well
+        private static final VarHandle COMPUTED = computedHandle(IntLiteral.class);
+
+        private long longValue;
+
+        private boolean overflow;
+
+        private boolean computed;
+
+        public IntLiteral(CharSequence value, Location loc) {
             super(loc);
             this.value = value;
         }
 
+        IntLiteral(CharSequence value, long longValue, boolean overflow, LineIndex lines, int offset) {
+            super(lines, offset);
+            this.value = value;
+            this.longValue = longValue;
+            this.overflow = overflow;
+            this.computed = true;
+        }
+
+        // Throws ArithmeticException if the value does not fit into a long
+        public long getLong() {
+            if (!fitsLong()) { throw new ArithmeticException("Integer literal does not fit into a long: " + value); }
+            return longValue;
+        }
+
+        public boolean fitsLong() {
+            if (!(boolean) COMPUTED.getAcquire(this)) {
+                NumericValue number = NumericValue.of(value);
+                longValue = number.longValue();
+                overflow = number.overflows();
+                COMPUTED.setRelease(this, true);
+            }
+            return !overflow;
+        }
+
         public String getValue() {
+            return value.toString();
+        }
+
+        // The value as it is in the source. Unlike getValue() it does not make a String
+        public CharSequence getText() {
             return value;
         }
 
         public void setValue(String value) {
             this.value = value;
+            this.computed = false;
+        }
+
+        @Override
+        public TokenKind kind() {
+            return TokenKind.INT_LITERAL;
         }
 
         @Override
         public String toString() {
             return "IntLiteral{" +
                     "value=" + value +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -276,12 +480,12 @@ public abstract class Token {
             if (o == null || getClass() != o.getClass()) return false;
             if (!super.equals(o)) return false;
             IntLiteral that = (IntLiteral) o;
-            return Objects.equals(value, that.value);
+            return SourceSlice.contentEquals(value, that.value);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), value);
+            return 31 * super.hashCode() + SourceSlice.hash(value);
         }
 
         @Override
@@ -290,27 +494,61 @@ public abstract class Token {
         }
     }
 
-    public static class FloatLiteral extends Token {
-        private String value;
+    public static final class FloatLiteral extends Token {
+        private CharSequence value;
+
+        // Computed by the lexer, see IntLiteral
+        private static final VarHandle COMPUTED = computedHandle(FloatLiteral.class);
 
-        public FloatLiteral(String value, Location loc) {
+        private double doubleValue;
+
+        private boolean computed;
+
+        public FloatLiteral(CharSequence value, Location loc) {
             super(loc);
             this.value = value;
         }
 
+        FloatLiteral(CharSequence value, double doubleValue, LineIndex lines, int offset) {
+            super(lines, offset);
+            this.value = value;
+            this.doubleValue = doubleValue;
+            this.computed = true;
+        }
+
+        // The double nearest to the literal. Literals too big for a double are infinite
+        public double getDouble() {
+            if (!(boolean) COMPUTED.getAcquire(this)) {
+                doubleValue = NumericValue.doubleOf(value);
+                COMPUTED.setRelease(this, true);
+            }
+            return doubleValue;
+        }
+
         public String getValue() {
+            return value.toString();
+        }
+
+        // The value as it is in the source. Unlike getValue() it does not make a String
+        public CharSequence getText() {
             return value;
         }
 
         public void setValue(String value) {
             this.value = value;
+            this.computed = false;
+        }
+
+        @Override
+        public TokenKind kind() {
+            return TokenKind.FLOAT_LITERAL;
         }
 
         @Override
         public String toString() {
             return "FloatLiteral{" +
                     "value=" + value +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -320,12 +558,12 @@ public abstract class Token {
             if (o == null || getClass() != o.getClass()) return false;
             if (!super.equals(o)) return false;
             FloatLiteral that = (FloatLiteral) o;
-            return Objects.equals(value, that.value);
+            return SourceSlice.contentEquals(value, that.value);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), value);
+            return 31 * super.hashCode() + SourceSlice.hash(value);
         }
 
         @Override
@@ -333,7 +571,7 @@ public abstract class Token {
             return "Token.FloatLiteral{\"" + value + "\"}";
         }
     }
-    public static class Unparsed extends Token {
+    public static final class Unparsed extends Token {
 
         enum Fail {
             UNCLOSED_STRING_LITERAL,
@@ -348,13 +586,20 @@ public abstract class Token {
             return fail;
         }
 
+        Unparsed(Fail fail, LineIndex lines, int offset) { super(lines, offset); this.fail = fail; }
+
         Unparsed(Fail fail, Location loc) { super(loc); this.fail = fail; }
 
+        @Override
+        public TokenKind kind() {
+            return TokenKind.UNPARSED;
+        }
+
         @Override
         public String toString() {
             return "Token.Unparsed{" +
                     "fail=" + fail +
-                    ", loc=" + loc +
+                    ", loc=" + getLoc() +
                     '}';
         }
 
@@ -369,7 +614,7 @@ public abstract class Token {
 
         @Override
         public int hashCode() {
-            return Objects.hash(super.hashCode(), fail);
+            return 31 * super.hashCode() + Objects.hashCode(fail);
         }
 
         @Override
@@ -381,7 +626,7 @@ public abstract class Token {
     @Override
     public String toString() {
         return "Token{" +
-                "loc=" + loc +
+                "loc=" + getLoc() +
                 '}';
     }
 
@@ -394,11 +639,42 @@ public abstract class Token {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Token token = (Token) o;
-        return Objects.equals(loc, token.loc);
+        return hasLoc() == token.hasLoc() && (!hasLoc() || sameLoc(token));
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(loc);
+        return hasLoc() ? 31 * (31 * Objects.hashCode(path()) + col()) + row() : 0;
+    }
+
+    private static VarHandle computedHandle(Class<? extends Token> type) {
+        try {
+            return MethodHandles.lookup().findVarHandle(type, "computed", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // equals and hashCode look the rows and columns up in the line index instead of making the locations
+
+    private boolean hasLoc() {
+        return loc != null || lines != null;
+    }
+
+    private boolean sameLoc(Token token) {
+        if (loc == null && token.loc == null && lines == token.lines) { return offset == token.offset; }
+        return row() == token.row() && col() == token.col() && Objects.equals(path(), token.path());
+    }
+
+    private String path() {
+        return loc != null ? loc.pathToFile() : lines.path();
+    }
+
+    private int row() {
+        return loc != null ? loc.row() : lines.row(offset);
+    }
+
+    private int col() {
+        return loc != null ? loc.col() : lines.col(offset);
     }
 }
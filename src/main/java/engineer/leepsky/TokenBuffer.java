@@ -0,0 +1,222 @@
+package engineer.leepsky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Lexed tokens kept in parallel arrays, so no objects are made per token.
+// Token objects and texts of identifiers and literals are built only when asked for
+public class TokenBuffer {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Flags
+    private static final byte ESCAPED = 1;
+    private static final byte UNITED  = 2;
+
+    private final LexerInput.OfString input;
+
+    // Rows and columns are not stored, they are found from the starts of the tokens
+    private final LineIndex lines;
+
+    private final boolean uniteStrings;
+
+    private final KeywordTable keywords;
+
+    private byte[] types;
+
+    private short[] kinds;
+
+    private byte[] flags;
+
+    private int[] starts;
+
+    private int[] lengths;
+
+    private int size;
+
+    TokenBuffer(LexerInput.OfString input, LineIndex lines, boolean uniteStrings, KeywordTable keywords) {
+        this.input = input;
+        this.lines = lines;
+        this.uniteStrings = uniteStrings;
+        this.keywords = keywords;
+        types = new byte[DEFAULT_CAPACITY];
+        kinds = new short[DEFAULT_CAPACITY];
+        flags = new byte[DEFAULT_CAPACITY];
+        starts = new int[DEFAULT_CAPACITY];
+        lengths = new int[DEFAULT_CAPACITY];
+    }
+
+    void add(Token.Type type, int kind, int start, int end, boolean escaped) {
+        byte flag = escaped ? ESCAPED : 0;
+        if (uniteStrings && type == Token.Type.STRING_LITERAL && endsWith(Token.Type.STRING_LITERAL)) {
+            lengths[size - 1] = end - starts[size - 1];
+            flags[size - 1] = (byte) (flags[size - 1] | UNITED | flag);
+            return;
+        }
+        if (size == types.length) { grow(); }
+        types[size] = (byte) type.ordinal();
+        kinds[size] = (short) kind;
+        flags[size] = flag;
+        starts[size] = start;
+        lengths[size] = end - start;
+        size++;
+    }
+
+    // Appends the tokens [fromIndex, toIndex) of the other buffer shifted by the delta
+    void copy(TokenBuffer other, int fromIndex, int toIndex, int startDelta) {
+        int count = toIndex - fromIndex;
+        while (size + count > types.length) { grow(); }
+        System.arraycopy(other.types, fromIndex, types, size, count);
+        System.arraycopy(other.kinds, fromIndex, kinds, size, count);
+        System.arraycopy(other.flags, fromIndex, flags, size, count);
+        System.arraycopy(other.lengths, fromIndex, lengths, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = other.starts[fromIndex + i] + startDelta;
+        }
+        size += count;
+    }
+
+    boolean endsWith(Token.Type type) {
+        return size > 0 && types[size - 1] == type.ordinal();
+    }
+
+    String source() {
+        return input.source();
+    }
+
+    LineIndex lines() {
+        return lines;
+    }
+
+    boolean uniteStrings() {
+        return uniteStrings;
+    }
+
+    KeywordTable keywords() {
+        return keywords;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type type(int i) {
+        return Token.TYPES[types[Objects.checkIndex(i, size)]];
+    }
+
+    // Same as Token.kind() of the i-th token
+    public TokenKind kind(int i) {
+        return switch (type(i)) {
+            case IDENTIFIER     -> TokenKind.IDENTIFIER;
+            case KEYWORD        -> GeneratedScanner.kind(keywords.kind(kinds[i]));
+            case SPECIAL        -> GeneratedScanner.kind(Token.SPECIAL_KINDS[kinds[i]]);
+            case STRING_LITERAL -> TokenKind.STRING_LITERAL;
+            case INT_LITERAL    -> TokenKind.INT_LITERAL;
+            case FLOAT_LITERAL  -> TokenKind.FLOAT_LITERAL;
+            case UNPARSED       -> TokenKind.UNPARSED;
+        };
+    }
+
+    // Returns null if the token is not Token.Keyword
+    public Token.Keyword.Kind keywordKind(int i) {
+        return type(i) == Token.Type.KEYWORD ? keywords.kind(kinds[i]) : null;
+    }
+
+    // Returns -1 if the token is not Token.Keyword
+    public int keywordId(int i) {
+        return type(i) == Token.Type.KEYWORD ? kinds[i] : -1;
+    }
+
+    // Returns null if the token is not Token.Special
+    public Token.Special.Kind specialKind(int i) {
+        return type(i) == Token.Type.SPECIAL ? Token.SPECIAL_KINDS[kinds[i]] : null;
+    }
+
+    // Returns null if the token is not Token.Unparsed
+    public Token.Unparsed.Fail fail(int i) {
+        return type(i) == Token.Type.UNPARSED ? Token.FAILS[kinds[i]] : null;
+    }
+
+    // Offset of the first char of the token in the source
+    public int start(int i) {
+        return starts[Objects.checkIndex(i, size)];
+    }
+
+    // Number of source chars the token takes
+    public int length(int i) {
+        return lengths[Objects.checkIndex(i, size)];
+    }
+
+    // Rows and columns are looked up by a binary search over the lines
+    public int row(int i) {
+        return lines.row(start(i));
+    }
+
+    public int col(int i) {
+        return lines.col(start(i));
+    }
+
+    // Values of numbers are not stored, they are parsed from the source again without making a String.
+    // Throws ArithmeticException if the value does not fit into a long
+    public long longValue(int i) {
+        if (type(i) != Token.Type.INT_LITERAL) { throw new IllegalArgumentException("Not an int literal: " + type(i)); }
+        if (kinds[i] != 0) { throw new ArithmeticException("Integer literal does not fit into a long: " + text(i)); }
+        return value(i);
+    }
+
+    public double doubleValue(int i) {
+        if (type(i) != Token.Type.FLOAT_LITERAL) { throw new IllegalArgumentException("Not a float literal: " + type(i)); }
+        return Double.longBitsToDouble(value(i));
+    }
+
+    // See Token.of
+    private long value(int i) {
+        Token.Type type = type(i);
+        if (type != Token.Type.INT_LITERAL && type != Token.Type.FLOAT_LITERAL) { return 0; }
+        NumericValue number = new NumericValue();
+        number.parse(input, starts[i], starts[i] + lengths[i]);
+        return type == Token.Type.INT_LITERAL
+                ? number.longValue()
+                : Double.doubleToRawLongBits(number.doubleValue(input, starts[i], starts[i] + lengths[i]));
+    }
+
+    // Returns the name of an identifier, the value of a number or the content of a string literal as a view of
+    // the source (unless the literal has escapes or is united). Returns null for other tokens
+    public CharSequence text(int i) {
+        return switch (type(i)) {
+            case IDENTIFIER, INT_LITERAL, FLOAT_LITERAL -> input.slice(starts[i], starts[i] + lengths[i]);
+            case STRING_LITERAL -> Lexer.stringContent(input, starts[i], starts[i] + lengths[i],
+                    (flags[i] & ESCAPED) != 0, (flags[i] & UNITED) != 0);
+            default -> null;
+        };
+    }
+
+    public Token get(int i) {
+        return Token.of(type(i), kinds[i], text(i), value(i), lines, starts[i], keywords);
+    }
+
+    public List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) { tokens.add(get(i)); }
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBuffer{" +
+                "filePath='" + lines.path() + '\'' +
+                ", size=" + size +
+                '}';
+    }
+}
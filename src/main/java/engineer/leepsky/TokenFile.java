@@ -0,0 +1,494 @@
+package engineer.leepsky;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.zip.CRC32C;
+
+// Tokens in a compact binary form, so a lexed source can be passed to other stages and processes instead of being
+// lexed again. A file is read right from its bytes (e.g. a memory-mapped file): the tokens are decoded one by one
+// while they are iterated, and every string the first time a token needs it.
+//
+// Format (numbers are unsigned LEB128 varints, signed ones are zigzag-encoded first):
+//   magic "LXTK", version, the hash of the kinds as 8 bytes, the CRC32C of the rest of the file as 4 bytes
+//   number of strings, then every string as its length in bytes shifted left by one and the bytes. The low bit is
+//   0 for UTF-8 and 1 for the UTF-16 chars (big-endian), which are kept only for strings with unpaired surrogates
+//   number of tokens, then every token as a tag and the fields of its type
+// The tag holds the Token.Type ordinal in the low 3 bits and the flags above them. Locations are kept as a delta
+// from the previous token: the path only if it changes (as a string id + 1, 0 for no path), the row as a signed
+// delta only if it changes, and the column as a signed delta from the previous column on the same row. Names,
+// contents and values are ids in the strings, so each of them is stored once.
+// Kinds are stored as ordinals, so a file is read only by a build with the same kinds: the hash covers the names of
+// the types, kinds and fails and the spellings of the kinds, which come from tokens.spec
+public final class TokenFile implements Iterable<Token> {
+
+    static final int VERSION = 3;
+
+    static final long KINDS = kindsHash();
+
+    private static final byte[] MAGIC = { 'L', 'X', 'T', 'K' };
+
+    // Flags of the tag
+    private static final int TYPE_BITS = 3;
+    private static final int NEW_PATH  = 1 << TYPE_BITS;
+    private static final int NEW_ROW   = 2 << TYPE_BITS;
+    private static final int NO_LOC    = 4 << TYPE_BITS;
+
+    private static final Token.Keyword.Kind[] KEYWORD_KINDS = Token.Keyword.Kind.values();
+
+    private final ByteBuffer bytes;
+
+    // Position of every string and of the tokens
+    private final int[] stringStarts;
+
+    // Length in bytes shifted left by one, the low bit is set for UTF-16
+    private final int[] stringLengths;
+
+    private final int tokensStart;
+
+    private final int size;
+
+    // Strings decoded so far. Racing iterators may decode a string twice, which does no harm
+    private final String[] strings;
+
+    private TokenFile(ByteBuffer bytes) {
+        this.bytes = bytes;
+        Cursor in = new Cursor(bytes, bytes.position());
+        for (byte b : MAGIC) {
+            if (in.pos >= bytes.limit() || bytes.get(in.pos++) != b) {
+                throw new IllegalArgumentException("Not a token file");
+            }
+        }
+        int version = in.varint();
+        if (version != VERSION) { throw new IllegalArgumentException("Unsupported token file version: " + version); }
+        if (in.fixed64() != KINDS) {
+            throw new IllegalArgumentException("Token file was written with other token kinds");
+        }
+        // A truncated or damaged file is rejected here, not when its tokens are decoded
+        int crc = in.fixed32();
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes.duplicate().position(in.pos));
+        if ((int) checksum.getValue() != crc) { throw new IllegalArgumentException("Corrupt token file"); }
+        int count = in.varint();
+        stringStarts = new int[count];
+        stringLengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            stringLengths[i] = in.varint();
+            stringStarts[i] = in.pos;
+            in.skip(stringLengths[i] >>> 1);
+        }
+        strings = new String[count];
+        size = in.varint();
+        tokensStart = in.pos;
+    }
+
+    // Reads the bytes between the position and the limit of the buffer. The buffer must not change while the file is read
+    public static TokenFile of(ByteBuffer bytes) {
+        return new TokenFile(bytes.duplicate());
+    }
+
+    public static TokenFile of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    // Memory-maps the file
+    public static TokenFile open(Path file) throws IOException {
+        return of(Lexer.map(file));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        return new Reader();
+    }
+
+    public List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (Token token : this) { tokens.add(token); }
+        return tokens;
+    }
+
+    // A list which decodes the tokens the first time they are asked for, so opening a file costs little. Unlike the
+    // iterator it can be shared by several threads
+    List<Token> decodingList() {
+        return new DecodingList();
+    }
+
+    private String string(int id) {
+        String string = strings[id];
+        if (string == null) {
+            byte[] encoded = new byte[stringLengths[id] >>> 1];
+            bytes.get(stringStarts[id], encoded);
+            if ((stringLengths[id] & 1) == 0) { string = new String(encoded, StandardCharsets.UTF_8); }
+            else {
+                // The charset would replace the unpaired surrogates, so the chars are taken as they are
+                char[] chars = new char[encoded.length / 2];
+                ByteBuffer.wrap(encoded).asCharBuffer().get(chars);
+                string = new String(chars);
+            }
+            strings[id] = string;
+        }
+        return string;
+    }
+
+    // FNV-1a over the chars of the names and spellings, each ended by a 0
+    private static long kindsHash() {
+        List<String> names = new ArrayList<>();
+        for (Token.Type type : Token.Type.values()) { names.add(type.name()); }
+        for (Token.Keyword.Kind kind : Token.Keyword.Kind.values()) { names.add(kind.name() + ' ' + kind.spelling()); }
+        for (Token.Special.Kind kind : Token.Special.Kind.values()) { names.add(kind.name() + ' ' + kind.spelling()); }
+        for (Token.Unparsed.Fail fail : Token.Unparsed.Fail.values()) { names.add(fail.name()); }
+        long hash = 0xCBF29CE484222325L;
+        for (String name : names) {
+            for (int i = 0; i <= name.length(); i++) {
+                hash = (hash ^ (i < name.length() ? name.charAt(i) : 0)) * 0x100000001B3L;
+            }
+        }
+        return hash;
+    }
+
+    private class Reader extends Cursor implements Iterator<Token> {
+
+        private int read;
+
+        private String path;
+
+        private int row;
+
+        private int col;
+
+        Reader() { super(bytes, tokensStart); }
+
+        @Override
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        @Override
+        public Token next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            read++;
+            int tag = varint();
+            Token.Location loc = null;
+            if ((tag & NO_LOC) == 0) {
+                if ((tag & NEW_PATH) != 0) {
+                    int id = index(strings.length + 1);
+                    path = id == 0 ? null : string(id - 1);
+                }
+                if ((tag & NEW_ROW) != 0) {
+                    row += signed();
+                    col = 0;
+                }
+                col += signed();
+                loc = new Token.Location(path, col, row);
+            }
+            int type = tag & ((1 << TYPE_BITS) - 1);
+            if (type >= Token.TYPES.length) { throw new IllegalArgumentException("Malformed token file"); }
+            return switch (Token.TYPES[type]) {
+                case IDENTIFIER -> {
+                    String name = string(index(strings.length));
+                    yield new Token.Identifier(name, varint() - 1, loc);
+                }
+                case KEYWORD -> {
+                    Token.Keyword.Kind kind = KEYWORD_KINDS[index(KEYWORD_KINDS.length)];
+                    int id = varint();
+                    yield new Token.Keyword(kind, id, string(index(strings.length)), loc);
+                }
+                case SPECIAL -> new Token.Special(Token.SPECIAL_KINDS[index(Token.SPECIAL_KINDS.length)], loc);
+                case STRING_LITERAL -> {
+                    String content = string(index(strings.length));
+                    yield new Token.StringLiteral(content, varint() - 1, loc);
+                }
+                // Values are parsed from the text when they are asked for
+                case INT_LITERAL -> new Token.IntLiteral(string(index(strings.length)), loc);
+                case FLOAT_LITERAL -> new Token.FloatLiteral(string(index(strings.length)), loc);
+                case UNPARSED -> new Token.Unparsed(Token.FAILS[index(Token.FAILS.length)], loc);
+            };
+        }
+    }
+
+    // Tokens are decoded in order, a batch at a time under the lock. Decoded ones are read without it
+    private class DecodingList extends AbstractList<Token> implements RandomAccess {
+
+        private static final int BATCH = 1024;
+
+        private final Token[] tokens = new Token[size];
+
+        private final Reader reader = new Reader();
+
+        // Written after the tokens it counts
+        private volatile int decoded;
+
+        @Override
+        public Token get(int index) {
+            Objects.checkIndex(index, size);
+            if (index >= decoded) { decode(index); }
+            return tokens[index];
+        }
+
+        private synchronized void decode(int index) {
+            int count = decoded;
+            int end = Math.min(size, Math.max(index + 1, count + BATCH));
+            while (count < end) { tokens[count++] = reader.next(); }
+            decoded = count;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    public static byte[] encode(List<? extends Token> tokens) {
+        return new Writer().write(tokens);
+    }
+
+    // The stream is not closed
+    public static void write(List<? extends Token> tokens, OutputStream out) throws IOException {
+        out.write(encode(tokens));
+    }
+
+    public static void write(List<? extends Token> tokens, Path file) throws IOException {
+        Files.write(file, encode(tokens));
+    }
+
+    // The tokens are written first, since the strings they use are known only then
+    private static class Writer {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final List<String> strings = new ArrayList<>();
+
+        private final Bytes out = new Bytes();
+
+        private String path;
+
+        private int row;
+
+        private int col;
+
+        private boolean first = true;
+
+        byte[] write(List<? extends Token> tokens) {
+            for (Token token : tokens) { token(token); }
+            Bytes body = new Bytes();
+            body.varint(strings.size());
+            for (String string : strings) {
+                // Charsets turn an unpaired surrogate into a replacement, so such a string is kept as its chars
+                boolean utf16 = hasUnpairedSurrogate(string);
+                byte[] encoded;
+                if (utf16) {
+                    ByteBuffer chars = ByteBuffer.allocate(Character.BYTES * string.length());
+                    chars.asCharBuffer().put(string);
+                    encoded = chars.array();
+                } else {
+                    encoded = string.getBytes(StandardCharsets.UTF_8);
+                }
+                body.varint(encoded.length << 1 | (utf16 ? 1 : 0));
+                body.write(encoded);
+            }
+            body.varint(tokens.size());
+            body.write(out.array(), out.size());
+            CRC32C checksum = new CRC32C();
+            checksum.update(body.array(), 0, body.size());
+            Bytes file = new Bytes();
+            file.write(MAGIC);
+            file.varint(VERSION);
+            file.fixed64(KINDS);
+            file.fixed32((int) checksum.getValue());
+            file.write(body.array(), body.size());
+            return file.toByteArray();
+        }
+
+        private void token(Token token) {
+            Token.Location loc = token.getLoc();
+            int tag = token.type().ordinal();
+            if (loc == null) { tag |= NO_LOC; }
+            else {
+                if (first || !Objects.equals(path, loc.pathToFile())) { tag |= NEW_PATH; }
+                if (first || loc.row() != row) { tag |= NEW_ROW; }
+            }
+            out.varint(tag);
+            if (loc != null) {
+                if ((tag & NEW_PATH) != 0) {
+                    path = loc.pathToFile();
+                    out.varint(path == null ? 0 : id(path) + 1);
+                }
+                if ((tag & NEW_ROW) != 0) {
+                    out.signed(loc.row() - row);
+                    row = loc.row();
+                    col = 0;
+                }
+                out.signed(loc.col() - col);
+                col = loc.col();
+                first = false;
+            }
+            switch (token) {
+                case Token.Identifier identifier -> {
+                    out.varint(id(identifier.getName()));
+                    out.varint(identifier.getSymbol() + 1);
+                }
+                case Token.Keyword keyword -> {
+                    out.varint(keyword.getKind().ordinal());
+                    out.varint(keyword.getId());
+                    out.varint(id(keyword.getName()));
+                }
+                case Token.Special special -> out.varint(special.getKind().ordinal());
+                case Token.StringLiteral literal -> {
+                    out.varint(id(literal.getContent()));
+                    out.varint(literal.getSymbol() + 1);
+                }
+                case Token.IntLiteral literal -> out.varint(id(literal.getValue()));
+                case Token.FloatLiteral literal -> out.varint(id(literal.getValue()));
+                case Token.Unparsed unparsed -> out.varint(unparsed.getFail().ordinal());
+            }
+        }
+
+        private static boolean hasUnpairedSurrogate(String string) {
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (!Character.isSurrogate(c)) { continue; }
+                if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                        && Character.isLowSurrogate(string.charAt(i + 1))) { i++; }
+                else { return true; }
+            }
+            return false;
+        }
+
+        private int id(String string) {
+            return ids.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+    }
+
+    // Growable byte array, unlike ByteArrayOutputStream it is not synchronized
+    private static class Bytes {
+
+        private byte[] array = new byte[256];
+
+        private int size;
+
+        void write(byte[] b) { write(b, b.length); }
+
+        void write(byte[] b, int length) {
+            if (size + length > array.length) { array = Arrays.copyOf(array, Math.max(array.length * 2, size + length)); }
+            System.arraycopy(b, 0, array, size, length);
+            size += length;
+        }
+
+        void varint(int value) {
+            if (size + 5 > array.length) { array = Arrays.copyOf(array, array.length * 2); }
+            while ((value & ~0x7F) != 0) {
+                array[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            array[size++] = (byte) value;
+        }
+
+        void signed(int value) {
+            varint((value << 1) ^ (value >> 31));
+        }
+
+        void fixed32(int value) {
+            write(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+        }
+
+        void fixed64(long value) {
+            write(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+        }
+
+        byte[] array() {
+            return array;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(array, size);
+        }
+    }
+
+    // Reads the numbers of the format from the position on
+    private static class Cursor {
+
+        private final ByteBuffer bytes;
+
+        int pos;
+
+        Cursor(ByteBuffer bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (pos >= bytes.limit()) { throw new IllegalArgumentException("Truncated token file"); }
+                byte b = bytes.get(pos++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) { return value; }
+            }
+            throw new IllegalArgumentException("Malformed varint in token file");
+        }
+
+        int signed() {
+            int value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // Reads an index which must be less than the bound, e.g. an ordinal or a string id
+        int index(int bound) {
+            int value = varint();
+            if (value < 0 || value >= bound) { throw new IllegalArgumentException("Malformed token file"); }
+            return value;
+        }
+
+        int fixed32() {
+            if (bytes.limit() - pos < Integer.BYTES) { throw new IllegalArgumentException("Truncated token file"); }
+            int value = bytes.getInt(pos);
+            pos += Integer.BYTES;
+            return value;
+        }
+
+        long fixed64() {
+            if (bytes.limit() - pos < Long.BYTES) { throw new IllegalArgumentException("Truncated token file"); }
+            long value = bytes.getLong(pos);
+            pos += Long.BYTES;
+            return value;
+        }
+
+        void skip(int length) {
+            if (length < 0 || length > bytes.limit() - pos) { throw new IllegalArgumentException("Truncated token file"); }
+            pos += length;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TokenFile{" +
+                "version=" + VERSION +
+                ", strings=" + strings.length +
+                ", size=" + size +
+                '}';
+    }
+}
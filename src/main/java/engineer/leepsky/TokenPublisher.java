@@ -0,0 +1,168 @@
+package engineer.leepsky;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Publishes the tokens of a TokenStream to a single subscriber. Tokens are lexed on the executor only while the
+// subscriber has requested more than it has got, so the lexer never runs ahead of it and nothing is buffered
+// (apart from the token the stream reads ahead to see where it ends). The stream is read by one task at a time
+public final class TokenPublisher implements Flow.Publisher<Token> {
+
+    private final TokenStream tokens;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public TokenPublisher(TokenStream tokens, Executor executor) {
+        this.tokens = Objects.requireNonNull(tokens);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    // Lexes on virtual threads, so a stream reading a slow Reader does not hold a platform thread
+    public TokenPublisher(TokenStream tokens) {
+        this(tokens, task -> Thread.ofVirtual().start(task));
+    }
+
+    // The stream can be read only once, so a second subscriber gets an IllegalStateException.
+    // Like in SubmissionPublisher, onSubscribe is called by the executor and tokens are delivered only after it has
+    // returned, so a subscriber which requests from onSubscribe never gets onNext while it is still in there
+    @Override
+    public void subscribe(Flow.Subscriber<? super Token> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription(null, subscriber, executor));
+            subscriber.onError(new IllegalStateException("TokenPublisher allows only one subscriber"));
+            return;
+        }
+        new Subscription(tokens, subscriber, executor).start();
+    }
+
+    private static class Subscription implements Flow.Subscription {
+
+        private final TokenStream tokens;
+
+        private final Flow.Subscriber<? super Token> subscriber;
+
+        private final Executor executor;
+
+        // Requested but not delivered yet. Long.MAX_VALUE means no limit
+        private final AtomicLong demand = new AtomicLong();
+
+        // Number of times the drain was asked for while it was running, it runs again until it is 0.
+        // It starts at 1 for the task which calls onSubscribe, so requests made until then only add to it
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private volatile boolean done;
+
+        // A request() which was not positive, reported by the drain
+        private volatile IllegalArgumentException badRequest;
+
+        Subscription(TokenStream tokens, Flow.Subscriber<? super Token> subscriber, Executor executor) {
+            this.tokens = tokens;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.done = tokens == null;
+        }
+
+        private void start() {
+            try {
+                executor.execute(() -> {
+                    try {
+                        subscriber.onSubscribe(this);
+                    } catch (Throwable e) {
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    drain();
+                });
+            } catch (RejectedExecutionException e) {
+                done = true;
+                subscriber.onSubscribe(this);
+                subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) { return; }
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() != 0) { return; }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                done = true;
+                subscriber.onError(e);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (done) { return; }
+                if (badRequest != null) {
+                    done = true;
+                    subscriber.onError(badRequest);
+                    return;
+                }
+                long requested = demand.get();
+                long emitted = 0;
+                while (!done) {
+                    // Looks for the next token even without demand, so the end is signalled without another request
+                    boolean end;
+                    try {
+                        end = !tokens.hasNext();
+                    } catch (RuntimeException e) {
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (end) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (emitted == requested) { break; }
+                    try {
+                        subscriber.onNext(tokens.next());
+                    } catch (Throwable e) {
+                        // Like in SubmissionPublisher, a subscriber which throws is cancelled and gets the error
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    emitted++;
+                }
+                if (requested != Long.MAX_VALUE) { demand.addAndGet(-emitted); }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TokenPublisher{" +
+                "tokens=" + tokens +
+                ", subscribed=" + subscribed.get() +
+                '}';
+    }
+}
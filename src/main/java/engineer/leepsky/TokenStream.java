@@ -0,0 +1,72 @@
+package engineer.leepsky;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class TokenStream implements Iterator<Token> {
+
+    private final Lexer lexer;
+
+    private final boolean uniteStrings;
+
+    // Token that will be returned by the next call of next()
+    private Token peeked;
+
+    // Token that was read ahead while looking for adjacent string literals
+    private Token pending;
+
+    TokenStream(Lexer lexer, boolean uniteStrings) {
+        this.lexer = lexer;
+        this.uniteStrings = uniteStrings;
+    }
+
+    public Token peek() {
+        if (peeked == null) { peeked = fetch(); }
+        return peeked;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peek() != null;
+    }
+
+    @Override
+    public Token next() {
+        Token token = peek();
+        if (token == null) { throw new NoSuchElementException(); }
+        peeked = null;
+        return token;
+    }
+
+    private Token pull() {
+        if (pending == null) { return lexer.nextToken(uniteStrings); }
+        Token token = pending;
+        pending = null;
+        return token;
+    }
+
+    private Token fetch() {
+        Token token = pull();
+        if (!uniteStrings || !(token instanceof Token.StringLiteral first)) { return token; }
+
+        StringBuilder content = null;
+        Token following;
+        while ((following = lexer.nextToken(uniteStrings)) instanceof Token.StringLiteral literal) {
+            if (content == null) { content = new StringBuilder().append(first.getText()); }
+            content.append(literal.getText());
+        }
+        pending = following;
+        if (content == null) { return lexer.lastLiteral(first); }
+        return lexer.unitedLiteral(content, first);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenStream{" +
+                "lexer=" + lexer +
+                ", uniteStrings=" + uniteStrings +
+                ", peeked=" + peeked +
+                ", pending=" + pending +
+                '}';
+    }
+}
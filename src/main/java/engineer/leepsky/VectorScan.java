@@ -0,0 +1,57 @@
+package engineer.leepsky;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Runs of chars scanned a vector at a time, see LexerInput.VECTOR. The class is loaded only if the
+// jdk.incubator.vector module is there. Every method scans chars[from, to) and returns the index of the first
+// char which is not in the run or to. The tail shorter than a vector is scanned char by char
+final class VectorScan {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    private static final int LENGTH = SPECIES.length();
+
+    private VectorScan() { }
+
+    static int skipSpaces(char[] chars, int from, int to) {
+        int i = from;
+        for (; i + LENGTH <= to; i += LENGTH) {
+            VectorMask<Short> stop = ShortVector.fromCharArray(SPECIES, chars, i).compare(VectorOperators.NE, ' ');
+            if (stop.anyTrue()) { return i + stop.firstTrue(); }
+        }
+        while (i < to && chars[i] == ' ') { i++; }
+        return i;
+    }
+
+    // ASCII letters, digits and underscores
+    static int skipAsciiIdentChars(char[] chars, int from, int to) {
+        int i = from;
+        for (; i + LENGTH <= to; i += LENGTH) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+            // Unsigned compares put chars below the lower bound above the upper one
+            VectorMask<Short> letter = v.or((short) 0x20).sub((short) 'a').compare(VectorOperators.UNSIGNED_LT, 26);
+            VectorMask<Short> digit = v.sub((short) '0').compare(VectorOperators.UNSIGNED_LT, 10);
+            VectorMask<Short> stop = letter.or(digit).or(v.compare(VectorOperators.EQ, '_')).not();
+            if (stop.anyTrue()) { return i + stop.firstTrue(); }
+        }
+        while (i < to && Lexer.isAsciiIdentPart(chars[i])) { i++; }
+        return i;
+    }
+
+    // Chars other than the quote, backslashes and newlines
+    static int skipStringChars(char[] chars, int from, int to, char quote) {
+        int i = from;
+        for (; i + LENGTH <= to; i += LENGTH) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+            VectorMask<Short> stop = v.compare(VectorOperators.EQ, (short) quote)
+                    .or(v.compare(VectorOperators.EQ, '\\'))
+                    .or(v.compare(VectorOperators.EQ, '\n'));
+            if (stop.anyTrue()) { return i + stop.firstTrue(); }
+        }
+        while (i < to && chars[i] != quote && chars[i] != '\\' && chars[i] != '\n') { i++; }
+        return i;
+    }
+}
@@ -0,0 +1,37 @@
+# Keywords and operators of the lexer. LexerGenerator turns this file into GeneratedScanner and TokenKind at build time.
+# Every line is `keyword <Token.Keyword.Kind> <spelling>` or `operator <Token.Special.Kind> <spelling>`,
+# the kinds must be declared in the enums. Operators are matched longest first.
+
+keyword EXAMPLE_KEYWORD_1 example1
+keyword EXAMPLE_KEYWORD_2 example2
+
+# Brackets
+operator CURLY_OPEN     {
+operator CURLY_CLOSE    }
+operator PAREN_OPEN     (
+operator PAREN_CLOSE    )
+operator SQUARE_OPEN    [
+operator SQUARE_CLOSE   ]
+
+# Other special symbols
+operator COMMA          ,
+operator EQUALS         =
+operator DBL_EQUALS     ==
+operator BAR            |
+operator BANG           !
+operator PLUS           +
+operator DASH           -
+operator ARROW          ->
+operator ASTERISK       *
+operator SLASH          /
+operator HASHTAG        #
+operator PERCENT        %
+operator COLON          :
+operator DBL_COLON      ::
+operator SEMICOLON      ;
+operator DOT            .
+operator LESSER         <
+operator BIGGER         >
+operator AMPERSAND      &
+operator DBL_AMPERSAND  &&
+operator AT             @